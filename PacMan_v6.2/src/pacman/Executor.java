@@ -24,6 +24,7 @@ import pacman.controllers.examples.StarterGhosts;
 import pacman.controllers.examples.StarterPacMan;
 import pacman.game.Game;
 import pacman.game.GameView;
+import pacman.game.internal.MazeRegistry;
 
 import static pacman.game.Constants.*;
 
@@ -90,13 +91,26 @@ public class Executor {
 
 		Random rnd = new Random(0);
 		Game game;
+		Game pacManCopy = null;
+		Game ghostsCopy = null;
+
+		// the games will visit most mazes, so all of them are loaded upfront (concurrently)
+		MazeRegistry.loadAll();
 
 		for (int i = 0; i < trials; i++) {
 			game = new Game(rnd.nextLong());
 
+			if (pacManCopy == null) {
+				pacManCopy = game.copy();
+				ghostsCopy = game.copy();
+			}
+
+			// the controllers are queried synchronously, so their copies are simply overwritten every tick
 			while (!game.gameOver()) {
-				game.advanceGame(pacManController.getMove(game.copy(), System.currentTimeMillis() + DELAY),
-						ghostController.getMove(game.copy(), System.currentTimeMillis() + DELAY));
+				game.copyInto(pacManCopy);
+				game.copyInto(ghostsCopy);
+				game.advanceGame(pacManController.getMove(pacManCopy, System.currentTimeMillis() + DELAY),
+						ghostController.getMove(ghostsCopy, System.currentTimeMillis() + DELAY));
 			}
 
 			avgScore += game.getScore();
@@ -126,6 +140,8 @@ public class Executor {
 	public void runGame(Controller<MOVE> pacManController, Controller<EnumMap<GHOST, MOVE>> ghostController,
 			boolean visual, int delay) {
 		Game game = new Game(0);
+		Game pacManCopy = game.copy();
+		Game ghostsCopy = game.copy();
 
 		GameView gv = null;
 
@@ -133,7 +149,9 @@ public class Executor {
 			gv = new GameView(game).showGame();
 
 		while (!game.gameOver()) {
-			game.advanceGame(pacManController.getMove(game.copy(), -1), ghostController.getMove(game.copy(), -1));
+			game.copyInto(pacManCopy);
+			game.copyInto(ghostsCopy);
+			game.advanceGame(pacManController.getMove(pacManCopy, -1), ghostController.getMove(ghostsCopy, -1));
 
 			try {
 				Thread.sleep(delay);
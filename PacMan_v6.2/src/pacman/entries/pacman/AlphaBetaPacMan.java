@@ -120,9 +120,9 @@ public class AlphaBetaPacMan extends Controller<MOVE> {
 		for (EnumMap<GHOST, MOVE> nextMinMoves : this.getNextMinMoves(game)) {
 			if (System.currentTimeMillis() - this.startTime >= this.timeLimit)
 				break;
-			Game gameCopy = game.copy();
-			gameCopy.advanceGameWithPowerPillReverseOnly(nextMaxMove, nextMinMoves);
-			beta = Math.min(beta, this.quiescenceSearchMax(gameCopy, alpha, beta));
+			game.makeMove(nextMaxMove, nextMinMoves);
+			beta = Math.min(beta, this.quiescenceSearchMax(game, alpha, beta));
+			game.unmakeMove();
 			if (beta <= alpha)
 				return beta;
 		}
@@ -154,9 +154,9 @@ public class AlphaBetaPacMan extends Controller<MOVE> {
 		for (EnumMap<GHOST, MOVE> nextMinMoves : this.getNextMinMoves(game)) {
 			if (System.currentTimeMillis() - this.startTime >= this.timeLimit)
 				break;
-			Game gameCopy = game.copy();
-			gameCopy.advanceGameWithPowerPillReverseOnly(nextMaxMove, nextMinMoves);
-			beta = Math.min(beta, this.alphaBetaMax(gameCopy, alpha, beta, depth - 1));
+			game.makeMove(nextMaxMove, nextMinMoves);
+			beta = Math.min(beta, this.alphaBetaMax(game, alpha, beta, depth - 1));
+			game.unmakeMove();
 			if (beta <= alpha)
 				return beta;
 		}
@@ -121,9 +121,9 @@ public class ExpectiMinimaxPacMan extends Controller<MOVE> {
 		for (EnumMap<GHOST, MOVE> nextRandomMove : nextGhostsMoves) {
 			if (System.currentTimeMillis() - this.startTime >= this.timeLimit)
 				break;
-			Game gameCopy = game.copy();
-			gameCopy.advanceGameWithPowerPillReverseOnly(nextMaxMove, nextRandomMove);
-			randomUtility += this.quiescenceSearchExpectiMax(gameCopy);
+			game.makeMove(nextMaxMove, nextRandomMove);
+			randomUtility += this.quiescenceSearchExpectiMax(game);
+			game.unmakeMove();
 		}
 		return randomUtility / nextGhostsMoves.size();
 	}
@@ -154,9 +154,9 @@ public class ExpectiMinimaxPacMan extends Controller<MOVE> {
 		for (EnumMap<GHOST, MOVE> nextRandomMove : nextGhostsMoves) {
 			if (System.currentTimeMillis() - this.startTime >= this.timeLimit)
 				break;
-			Game gameCopy = game.copy();
-			gameCopy.advanceGameWithPowerPillReverseOnly(nextMaxMove, nextRandomMove);
-			randomUtility += this.expectiMax(gameCopy, depth - 1);
+			game.makeMove(nextMaxMove, nextRandomMove);
+			randomUtility += this.expectiMax(game, depth - 1);
+			game.unmakeMove();
 		}
 		return randomUtility / nextGhostsMoves.size();
 	}
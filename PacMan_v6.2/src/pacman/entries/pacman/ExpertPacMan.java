@@ -6,12 +6,17 @@ import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
 import pacman.game.GameView;
+import pacman.game.internal.PathCursor;
 
 import java.awt.Color;
 import java.util.ArrayList;
 import java.util.HashSet;
 
+import static pacman.game.Constants.NUM_GHOSTS;
+
 public class ExpertPacMan extends Controller<MOVE> {
+//	the number of nearest pills checked before falling back to all pills
+	private static final int NEAREST_PILLS = 16;
 	private int escapeJunctions;
 	private int safeDist;
 	private int alignDist;
@@ -28,7 +33,12 @@ public class ExpertPacMan extends Controller<MOVE> {
 	private ArrayList<Integer> edibleGhostsIndices;
 	private ArrayList<Integer> ghostsIndices;
 	private ArrayList<Integer> trueGhostsIndices;
+	private int[] ghostsDistances;
+	private final int[] ghostsSources = new int[NUM_GHOSTS];
+	private final int[] nearestPills = new int[NEAREST_PILLS];
+	private final int[] nearestPillsDistances = new int[NEAREST_PILLS];
 	private MOVE myMove = MOVE.NEUTRAL;
+	private final PathCursor path = new PathCursor();
 
 	/**
 	 * starts the computing time counter
@@ -116,8 +126,9 @@ public class ExpertPacMan extends Controller<MOVE> {
 	 */
 	private void getExit(Game game, int targetIndex) {
 		HashSet<Integer> discovered = new HashSet<Integer>();
-		for (int pathIndex : game.getShortestPath(this.currentIndex, targetIndex))
-			discovered.add(pathIndex);
+		game.getShortestPath(this.currentIndex, targetIndex, this.path);
+		while (this.path.hasNext())
+			discovered.add(this.path.next());
 		this.getNeighbors(game, discovered, targetIndex);
 	}
 
@@ -137,10 +148,14 @@ public class ExpertPacMan extends Controller<MOVE> {
 		MOVE lastMoveMade = game.getGhostLastMoveMade(ghost);
 		int currentGhostDist = game.getShortestPathDistance(ghostIndex, this.currentIndex);
 		int nextGhostDist = game.getShortestPathDistance(ghostIndex, this.currentIndex, lastMoveMade);
-		if (nextGhostDist < currentGhostDist)
-			for (int pathIndex : game.getShortestPath(ghostIndex, this.currentIndex, lastMoveMade))
+		if (nextGhostDist < currentGhostDist) {
+			game.getShortestPath(ghostIndex, this.currentIndex, lastMoveMade, this.path);
+			while (this.path.hasNext()) {
+				int pathIndex = this.path.next();
 				if (game.isJunction(pathIndex) && pathIndex != this.currentIndex)
 					return pathIndex;
+			}
+		}
 		return ghostIndex;
 	}
 
@@ -160,11 +175,8 @@ public class ExpertPacMan extends Controller<MOVE> {
 		int safeJunctions = 0;
 		int targetDist = game.getShortestPathDistance(this.currentIndex, targetIndex);
 		for (int junctionIndex : game.getJunctionIndices()) {
-			boolean nextJunctionSafe = true;
 			int junctionDist = targetDist + game.getShortestPathDistance(targetIndex, junctionIndex);
-			for (int ghostIndex : this.ghostsIndices)
-				if (game.getShortestPathDistance(ghostIndex, junctionIndex) - junctionDist < this.safeDist)
-					nextJunctionSafe = false;
+			boolean nextJunctionSafe = this.ghostsDistances[junctionIndex] - junctionDist >= this.safeDist;
 			if (nextJunctionSafe && ++safeJunctions >= this.escapeJunctions)
 				return true;
 		}
@@ -184,10 +196,7 @@ public class ExpertPacMan extends Controller<MOVE> {
 		if (this.ghostsIndices.size() == 0)
 			return true;
 		int targetDist = game.getShortestPathDistance(this.currentIndex, targetIndex);
-		for (int ghostIndex : this.ghostsIndices)
-			if (game.getShortestPathDistance(ghostIndex, targetIndex) - targetDist < this.safeDist)
-				return false;
-		return true;
+		return this.ghostsDistances[targetIndex] - targetDist >= this.safeDist;
 	}
 
 	/**
@@ -206,12 +215,9 @@ public class ExpertPacMan extends Controller<MOVE> {
 		if (this.ghostsIndices.size() == 0)
 			return true;
 		this.getExit(game, targetIndex);
-		boolean followingGhosts = false;
 		HashSet<Integer> unsafeJunctions = new HashSet<Integer>();
 		int targetDist = game.getShortestPathDistance(this.currentIndex, targetIndex);
-		for (int ghostIndex : this.ghostsIndices)
-			if (targetDist > game.getShortestPathDistance(ghostIndex, this.currentIndex))
-				followingGhosts = true;
+		boolean followingGhosts = targetDist > this.ghostsDistances[this.currentIndex];
 		if (followingGhosts) {
 			int exitDist = targetDist + game.getShortestPathDistance(targetIndex, this.exitJunction);
 			for (int ghostIndex : this.ghostsIndices)
@@ -223,13 +229,11 @@ public class ExpertPacMan extends Controller<MOVE> {
 							unsafeJunctions.add(junctionIndex);
 					}
 		} else {
-			for (int ghostIndex : this.ghostsIndices)
-				for (int junctionIndex : game.getJunctionIndices()) {
-					int junctionDist = targetDist + game.getShortestPathDistance(targetIndex, junctionIndex);
-					int ghostJunctionDist = game.getShortestPathDistance(ghostIndex, junctionIndex);
-					if (ghostJunctionDist - junctionDist < this.safeDist)
-						unsafeJunctions.add(junctionIndex);
-				}
+			for (int junctionIndex : game.getJunctionIndices()) {
+				int junctionDist = targetDist + game.getShortestPathDistance(targetIndex, junctionIndex);
+				if (this.ghostsDistances[junctionIndex] - junctionDist < this.safeDist)
+					unsafeJunctions.add(junctionIndex);
+			}
 		}
 		return game.getJunctionIndices().length - unsafeJunctions.size() >= this.escapeJunctions;
 	}
@@ -277,10 +281,12 @@ public class ExpertPacMan extends Controller<MOVE> {
 		if (this.trueGhostsIndices.size() == 0)
 			return true;
 		int ghostCounter = 0;
-		for (int ghostIndex : this.trueGhostsIndices)
-			for (int pathIndex : game.getShortestPath(ghostIndex, targetIndex))
-				if (pathIndex == this.currentIndex && ++ghostCounter == this.trueGhostsIndices.size())
+		for (int ghostIndex : this.trueGhostsIndices) {
+			game.getShortestPath(ghostIndex, targetIndex, this.path);
+			while (this.path.hasNext())
+				if (this.path.next() == this.currentIndex && ++ghostCounter == this.trueGhostsIndices.size())
 					return true;
+		}
 		return false;
 	}
 
@@ -308,10 +314,13 @@ public class ExpertPacMan extends Controller<MOVE> {
 		for (int trueGhostIndex : this.trueGhostsIndices)
 			if (trueGhostIndex == farthestGhostIndex)
 				ghostCounter++;
-		for (int pathIndex : game.getShortestPath(farthestGhostIndex, this.currentIndex))
+		game.getShortestPath(farthestGhostIndex, this.currentIndex, this.path);
+		while (this.path.hasNext()) {
+			int pathIndex = this.path.next();
 			for (int trueGhostIndex : this.trueGhostsIndices)
 				if (pathIndex == trueGhostIndex && ++ghostCounter == this.trueGhostsIndices.size())
 					return true;
+		}
 		return false;
 	}
 
@@ -425,10 +434,7 @@ public class ExpertPacMan extends Controller<MOVE> {
 	 */
 	private boolean findNearestPill(Game game) {
 		this.dist = Integer.MAX_VALUE;
-		for (int pillIndex : game.getActivePillsIndices()) {
-			int dist = game.getShortestPathDistance(this.currentIndex, pillIndex);
-			this.setNextIndex(game, dist < this.dist, dist, pillIndex);
-		}
+		this.setNearestPill(game, false);
 		return this.endComputing(game, false, Color.green, "findNearestPill");
 	}
 
@@ -443,11 +449,7 @@ public class ExpertPacMan extends Controller<MOVE> {
 	 */
 	private boolean activeFindPill(Game game) {
 		this.dist = Integer.MAX_VALUE;
-		for (int pillIndex : game.getActivePillsIndices())
-			if (this.isIndexSafe(game, pillIndex)) {
-				int dist = game.getShortestPathDistance(this.currentIndex, pillIndex);
-				this.setNextIndex(game, dist < this.dist, dist, pillIndex);
-			}
+		this.setNearestPill(game, true);
 		return this.endComputing(game, false, Color.green, "activeFindPill");
 	}
 
@@ -461,6 +463,7 @@ public class ExpertPacMan extends Controller<MOVE> {
 	 */
 	private boolean findPill(Game game) {
 		this.dist = Integer.MAX_VALUE;
+//		all pills are checked in the order of their indices as isIndexClear depends on the exit junction found for the previous pill
 		for (int pillIndex : game.getActivePillsIndices())
 			if (this.isIndexSafe(game, pillIndex) && this.isIndexClear(game, pillIndex)) {
 				int dist = game.getShortestPathDistance(this.currentIndex, pillIndex);
@@ -469,6 +472,30 @@ public class ExpertPacMan extends Controller<MOVE> {
 		return this.endComputing(game, false, Color.green, "findPill");
 	}
 
+	/**
+	 * sets the next index to the nearest pill, if required the nearest one that can
+	 * be reached safely, the nearest pills are checked in order of distance so that
+	 * the search stops at the first safe one, all pills are checked only if none of
+	 * them is safe
+	 * 
+	 * @param game current game
+	 * @param safe whether the pill has to be reachable safely
+	 */
+	private void setNearestPill(Game game, boolean safe) {
+		int found = game.getNearestActivePills(this.currentIndex, false, this.nearestPills, this.nearestPillsDistances);
+		for (int i = 0; i < found; i++)
+			if (!safe || this.isIndexSafe(game, this.nearestPills[i])) {
+				this.setNextIndex(game, true, this.nearestPillsDistances[i], this.nearestPills[i]);
+				return;
+			}
+		if (found == NEAREST_PILLS)
+			for (int pillIndex : game.getActivePillsIndices())
+				if (this.isIndexSafe(game, pillIndex)) {
+					int dist = game.getShortestPathDistance(this.currentIndex, pillIndex);
+					this.setNextIndex(game, dist < this.dist, dist, pillIndex);
+				}
+	}
+
 	/**
 	 * tries to reach safely the nearest pill, at least two junction for escape are
 	 * granted, this is safer than the standard movement logic and it's adopted when
@@ -633,6 +660,11 @@ public class ExpertPacMan extends Controller<MOVE> {
 			}
 		}
 
+//		the distance from every node to the closest (possibly fake) ghost, shared by all the safety checks of this step
+		for (int i = 0; i < this.ghostsIndices.size(); i++)
+			this.ghostsSources[i] = this.ghostsIndices.get(i);
+		this.ghostsDistances = game.getDistanceField(this.ghostsSources, this.ghostsIndices.size());
+
 //		necessary with legacy2, works good with every strategy except for aggressive ghosts
 //		boolean noGhosts = this.trueGhostsIndices.size() + this.edibleGhostsIndices.size() == 0;
 //		if (noGhosts && this.findPillAwayFromLair(game))
@@ -78,9 +78,9 @@ public class MinimaxPacMan extends Controller<MOVE> {
 		for (MOVE nextMaxMove : this.getNextMaxMoves(game)) {
 			if (System.currentTimeMillis() - this.startTime >= this.timeLimit)
 				break;
-			Game gameCopy = game.copy();
-			gameCopy.advanceGameWithPowerPillReverseOnly(nextMaxMove, nextGhostsMoves);
-			maxUtility = Math.max(maxUtility, this.quiescenceSearchMaxi(gameCopy));
+			game.makeMove(nextMaxMove, nextGhostsMoves);
+			maxUtility = Math.max(maxUtility, this.quiescenceSearchMaxi(game));
+			game.unmakeMove();
 		}
 		return maxUtility;
 	}
@@ -97,9 +97,9 @@ public class MinimaxPacMan extends Controller<MOVE> {
 				break;
 			if (depth == this.maxDepth)
 				this.nextMaxMove = nextMaxMove;
-			Game gameCopy = game.copy();
-			gameCopy.advanceGameWithPowerPillReverseOnly(nextMaxMove, nextGhostsMoves);
-			maxUtility = Math.max(maxUtility, this.maxi(gameCopy, depth - 1));
+			game.makeMove(nextMaxMove, nextGhostsMoves);
+			maxUtility = Math.max(maxUtility, this.maxi(game, depth - 1));
+			game.unmakeMove();
 		}
 		return maxUtility;
 	}
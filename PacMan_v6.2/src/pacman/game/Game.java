@@ -1,22 +1,26 @@
 package pacman.game;
 
-import java.util.BitSet;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.Random;
 import java.util.Map.Entry;
 import pacman.game.Constants.DM;
 import pacman.game.Constants.MOVE;
-import pacman.game.internal.Ghost;
+import pacman.game.internal.CorridorGraph;
 import pacman.game.internal.Maze;
-import pacman.game.internal.Node;
-import pacman.game.internal.PacMan;
+import pacman.game.internal.MazeRegistry;
+import pacman.game.internal.PathCursor;
 import pacman.game.internal.PathsCache;
+import pacman.game.internal.SharedPathCache;
+import pacman.game.internal.SplitMix64;
 
 import static pacman.game.Constants.*;
 
 /**
  * The implementation of Ms Pac-Man. This class contains the game engine and all methods required to
- * query the state of the game. First, the mazes are loaded once only as they are immutable. The game
+ * query the state of the game. First, the mazes are loaded on demand, once only as they are immutable. The game
  * then proceeds to initialise all variables using default values. The game class also provides numerous
  * methods to extract the game state as a string (used for replays and for communication via pipes during
  * the competition) and to create copies. Care has been taken to implement the game efficiently to ensure
@@ -36,39 +40,110 @@ import static pacman.game.Constants.*;
  */
 public final class Game
 {
-	//pills stored as bitsets for efficient copying
-	private BitSet pills, powerPills;
+	//pills stored as the words of a bitset (bit i of word i>>>6 is pill i) for efficient copying
+	private long[] pills, powerPills;
+	//the number of pills still available in each corridor of the maze (see CorridorGraph): counted when first queried
+	//after the pills have been replaced as a whole (e.g., a new level or a state that was read), then kept up to date
+	private int[] corridorPills;
+	private boolean corridorPillsCounted;
 	//all the game's variables
 	private int mazeIndex, levelCount, currentLevelTime, totalTime, score, ghostEatMultiplier, timeOfLastGlobalReversal;	
 	private boolean gameOver, pacmanWasEaten, pillWasEaten, powerPillWasEaten;
-	private EnumMap<GHOST,Boolean> ghostsEaten;
-	//the data relating to pacman and the ghosts are stored in respective data structures for clarity
-	private PacMan pacman;
-	private EnumMap<GHOST, Ghost> ghosts;
-
-	//mazes are only loaded once since they don't change over time
-	private static Maze[] mazes=new Maze[NUM_MAZES];;
+	//bit g is set if the ghost with ordinal g was eaten in the last time step
+	private int ghostsEaten;
+	//the data relating to Ms Pac-Man; moves are stored as MOVE ordinals
+	private int pacmanNodeIndex, pacmanLastMove, pacmanLivesRemaining;
+	private boolean pacmanReceivedExtraLife;
+	//the data relating to the ghosts, indexed by GHOST ordinal; moves are stored as MOVE ordinals
+	private int[] ghostNodeIndex, ghostEdibleTime, ghostLairTime, ghostLastMove;
+	//the Zobrist hash of the maze and the characters, and of the pills eaten (a full maze hashes to 0)
+	private long hash, pillHash;
+	
+	//the enumerations are cached as arrays so that ordinals may be mapped back without allocation
+	private static final MOVE[] MOVES=MOVE.values();
+	private static final GHOST[] GHOSTS=GHOST.values();
+	//the ordinal of the opposite of each move, indexed by MOVE ordinal
+	private static final int[] OPPOSITES=new int[MOVES.length];
+	private static final int NEUTRAL=MOVE.NEUTRAL.ordinal();
+	//the offsets of the moves towards and away from a node in the entries of Maze.nextMoves
+	private static final int NEXT_MOVES_TOWARDS=0, NEXT_MOVES_AWAY=6;
+	
+	static
+	{
+		for(int i=0;i<MOVES.length;i++)
+			OPPOSITES[i]=MOVES[i].opposite().ordinal();
+	}
+	
+	//the edible time, the lair time after being eaten and the initial lair times of the ghosts (stored as
+	//level*NUM_GHOSTS+ghost) for each level; these repeat every LEVEL_RESET_REDUCTION levels
+	private static final int[] EDIBLE_TIMES=new int[LEVEL_RESET_REDUCTION];
+	private static final int[] COMMON_LAIR_TIMES=new int[LEVEL_RESET_REDUCTION];
+	private static final int[] INITIAL_LAIR_TIMES=new int[LEVEL_RESET_REDUCTION*NUM_GHOSTS];
+	
+	static
+	{
+		for(int level=0;level<LEVEL_RESET_REDUCTION;level++)
+		{
+			EDIBLE_TIMES[level]=(int)(EDIBLE_TIME*(Math.pow(EDIBLE_TIME_REDUCTION,level)));
+			COMMON_LAIR_TIMES[level]=(int)(COMMON_LAIR_TIME*(Math.pow(LAIR_REDUCTION,level)));
+			
+			for(int i=0;i<NUM_GHOSTS;i++)
+				INITIAL_LAIR_TIMES[level*NUM_GHOSTS+i]=(int)(GHOSTS[i].initialLairTime*(Math.pow(LAIR_REDUCTION,level)));
+		}
+	}
 	
-	private Maze currentMaze;
+	//the number of bytes written by writeGameState() before the pills
+	private static final int GAME_STATE_HEADER_BYTES=27+9*NUM_GHOSTS;
 	
-	static 
+	//the keys of the Zobrist hash that don't depend on the maze (see Maze for the others); edible and lair
+	//times are stored as ghost*EDIBLE_KEYS+time and ghost*LAIR_KEYS+time respectively
+	private static final int EDIBLE_KEYS=EDIBLE_TIME+1;
+	private static final int LAIR_KEYS=_maxLairTime()+1;
+	private static final long[] MAZE_KEYS=new long[NUM_MAZES];
+	private static final long[] PACMAN_MOVE_KEYS=new long[MOVES.length];
+	private static final long[] GHOST_MOVE_KEYS=new long[NUM_GHOSTS*MOVES.length];
+	private static final long[] GHOST_EDIBLE_KEYS=new long[NUM_GHOSTS*EDIBLE_KEYS];
+	private static final long[] GHOST_LAIR_KEYS=new long[NUM_GHOSTS*LAIR_KEYS];
+	
+	static
 	{
-		for(int i=0;i<mazes.length;i++)
-			mazes[i]=new Maze(i);
+		Random rnd=new Random(0x9E3779B97F4A7C15L);
+		
+		long[][] keys={MAZE_KEYS,PACMAN_MOVE_KEYS,GHOST_MOVE_KEYS,GHOST_EDIBLE_KEYS,GHOST_LAIR_KEYS};
+		
+		for(int i=0;i<keys.length;i++)
+			for(int j=0;j<keys[i].length;j++)
+				keys[i][j]=rnd.nextLong();
 	}
+
+	//mazes are loaded on demand, only once since they don't change over time (see MazeRegistry)
+	private Maze currentMaze;
 	
-	public static PathsCache[] caches=new PathsCache[NUM_MAZES];
+	//used by the path queries that write into arrays or buffers; not part of the state of the game
+	private PathCursor pathCursor;
 	
-	static 
-	{
-		for(int i=0;i<mazes.length;i++)
-		{
-			caches[i]=new PathsCache(i);
-		}
-	}
+	//the distance fields, computed on demand and re-used as long as the sources they were computed from are unchanged;
+	//not part of the state of the game (see getGhostDistanceField(), getPillDistanceField() and getDistanceField(-))
+	private int[] ghostDistanceField, nearestGhostField, ghostFieldSources;
+	private int[] pillDistanceField;
+	private int[] distanceField, distanceFieldSources;
+	private int numDistanceFieldSources;
+	private Maze ghostFieldMaze, pillFieldMaze, distanceFieldMaze;
+	private long pillFieldHash;
+	private int[] fieldQueue;
+	
+	//the workspace of the searches for the nearest pills (see getNearestActivePills(-)); not part of the state of the game
+	private int[] pillSearchSettled, pillSearchCorridors, nearestPill, nearestPillDistance;
+	private long[] pillSearchHeap;
+	private int pillSearchStamp;
 	
-	private Random rnd;
-	private long seed;	
+	//the state of the game's pseudo-random number generator (see SplitMix64); copies continue the same sequence
+	private long rngState;
+	
+	//the deltas recorded by makeMove() so that unmakeMove() can restore the previous state
+	private GameDelta[] deltas;
+	private int numDeltas;
+	private GameDelta recording;
 	
 	/////////////////////////////////////////////////////////////////////////////
 	///////////////////  Constructors and initialisers  /////////////////////////
@@ -84,8 +159,7 @@ public final class Game
 	 */
 	public Game(long seed)
 	{		
-		this.seed=seed;
-		rnd=new Random(seed);
+		rngState=seed;
 		
 		_init(0);
 	}
@@ -98,8 +172,7 @@ public final class Game
 	 */
 	public Game(long seed,int initialMaze)
 	{						
-		this.seed=seed;
-		rnd=new Random(seed);
+		rngState=seed;
 		
 		_init(initialMaze);		
 	}
@@ -124,16 +197,37 @@ public final class Game
 		pacmanWasEaten=false;
 		pillWasEaten=false;
 		powerPillWasEaten=false;
+		ghostsEaten=0;
 		
-		ghostsEaten=new EnumMap<GHOST,Boolean>(GHOST.class);
-		
-		for(GHOST ghost : GHOST.values())
-			ghostsEaten.put(ghost,false);
+		ghostNodeIndex=new int[NUM_GHOSTS];
+		ghostEdibleTime=new int[NUM_GHOSTS];
+		ghostLairTime=new int[NUM_GHOSTS];
+		ghostLastMove=new int[NUM_GHOSTS];
 		
-		_setPills(currentMaze=mazes[mazeIndex]);
+		_setPills(_enterMaze());
 		_initGhosts();
 		
-		pacman=new PacMan(currentMaze.initialPacManNodeIndex,MOVE.LEFT,NUM_LIVES,false);		
+		pacmanNodeIndex=currentMaze.initialPacManNodeIndex;
+		pacmanLastMove=MOVE.LEFT.ordinal();
+		pacmanLivesRemaining=NUM_LIVES;
+		pacmanReceivedExtraLife=false;
+		
+		hash=_hashCharacters();
+		pillHash=0;
+	}
+	
+	/**
+	 * Sets the current maze to the one of the current level, loading it if necessary, and prefetches
+	 * the maze of the next level in the background.
+	 *
+	 * @return The current maze
+	 */
+	private Maze _enterMaze()
+	{
+		currentMaze=MazeRegistry.getMaze(mazeIndex);
+		MazeRegistry.prefetch((mazeIndex+1)%NUM_MAZES);
+		
+		return currentMaze;
 	}
 	
 	/**
@@ -143,12 +237,27 @@ public final class Game
 	{
 		mazeIndex=++mazeIndex%NUM_MAZES;
 		levelCount++;
-		currentMaze=mazes[mazeIndex];
+		_enterMaze();
 		
 		currentLevelTime=0;
 		ghostEatMultiplier=1;
+		
+		//the pills of the previous level are handed over to the delta being recorded
+		if(recording!=null)
+		{
+			long[] tmp=recording.pills;
+			recording.pills=pills;
+			pills=tmp;
+			
+			tmp=recording.powerPills;
+			recording.powerPills=powerPills;
+			powerPills=tmp;
+			
+			recording.levelChanged=true;
+		}
 			
 		_setPills(currentMaze);
+		pillHash=0;
 		_levelReset();
 	}
 	
@@ -161,8 +270,11 @@ public final class Game
 		
 		_initGhosts();
 		
-		pacman.currentNodeIndex=currentMaze.initialPacManNodeIndex;
-		pacman.lastMoveMade=MOVE.LEFT;
+		pacmanNodeIndex=currentMaze.initialPacManNodeIndex;
+		pacmanLastMove=MOVE.LEFT.ordinal();
+		
+		//all characters have been reset, so the hash is rebuilt from scratch (it does not depend on the pills)
+		hash=_hashCharacters();
 	}
 	
 	/**
@@ -172,10 +284,172 @@ public final class Game
 	 */
 	private void _setPills(Maze maze)
 	{
-		pills=new BitSet(currentMaze.pillIndices.length);
-		pills.set(0,currentMaze.pillIndices.length);
-		powerPills=new BitSet(currentMaze.powerPillIndices.length);
-		powerPills.set(0,currentMaze.powerPillIndices.length);
+		pills=_setAll(pills,maze.pillIndices.length);
+		powerPills=_setAll(powerPills,maze.powerPillIndices.length);
+		corridorPillsCounted=false;
+	}
+	
+	/**
+	 * Counts the pills still available in each corridor of the current maze. This is only
+	 * required once the pills have been replaced as a whole; single pills are counted as
+	 * they are eaten (or restored).
+	 */
+	private void _countCorridorPills()
+	{
+		CorridorGraph corridors=currentMaze.corridors;
+		
+		if(corridorPills==null || corridorPills.length!=corridors.getNumCorridors())
+			corridorPills=new int[corridors.getNumCorridors()];
+		else
+			Arrays.fill(corridorPills,0);
+		
+		//visits the pills still available only
+		for(int w=0;w<pills.length;w++)
+			for(long word=pills[w];word!=0;word&=word-1)
+			{
+				int corridor=corridors.getCorridor(currentMaze.pillIndices[(w<<6)+Long.numberOfTrailingZeros(word)]);
+				
+				if(corridor>=0)
+					corridorPills[corridor]++;
+			}
+		
+		corridorPillsCounted=true;
+	}
+	
+	/**
+	 * Sets the first numBits bits of a bitset stored as words. The words are re-used
+	 * unless the number of bits requires a different number of words.
+	 *
+	 * @param words the words of the bitset (may be null)
+	 * @param numBits the number of bits to set
+	 * @return the words of the bitset
+	 */
+	private static long[] _setAll(long[] words,int numBits)
+	{
+		int numWords=(numBits+63)>>>6;
+		
+		if(words==null || words.length!=numWords)
+			words=new long[numWords];
+		
+		Arrays.fill(words,-1L);
+		
+		if((numBits&63)!=0)
+			words[numWords-1]=-1L>>>(64-(numBits&63));
+		
+		return words;
+	}
+	
+	/**
+	 * Returns whether the specified bit is set.
+	 */
+	private static boolean _get(long[] words,int bit)
+	{
+		return (words[bit>>>6]&(1L<<bit))!=0;
+	}
+	
+	/**
+	 * Returns the number of bits set.
+	 */
+	private static int _cardinality(long[] words)
+	{
+		int count=0;
+		
+		for(int i=0;i<words.length;i++)
+			count+=Long.bitCount(words[i]);
+		
+		return count;
+	}
+	
+	/**
+	 * Returns whether no bit is set.
+	 */
+	private static boolean _isEmpty(long[] words)
+	{
+		for(int i=0;i<words.length;i++)
+			if(words[i]!=0)
+				return false;
+		
+		return true;
+	}
+	
+	/**
+	 * Returns the part of the Zobrist hash contributed by Ms Pac-Man.
+	 */
+	private long _pacManKey()
+	{
+		return currentMaze.pacManNodeKeys[pacmanNodeIndex]^PACMAN_MOVE_KEYS[pacmanLastMove];
+	}
+	
+	/**
+	 * Returns the part of the Zobrist hash contributed by the ghost with the ordinal specified.
+	 * Times outside the range of the keys (only possible using setGameState()) share the last key.
+	 */
+	private long _ghostKey(int ghost)
+	{
+		return currentMaze.ghostNodeKeys[ghost*currentMaze.graph.length+ghostNodeIndex[ghost]]
+				^GHOST_MOVE_KEYS[ghost*MOVES.length+ghostLastMove[ghost]]
+				^GHOST_EDIBLE_KEYS[ghost*EDIBLE_KEYS+Math.min(ghostEdibleTime[ghost],EDIBLE_KEYS-1)]
+				^GHOST_LAIR_KEYS[ghost*LAIR_KEYS+Math.min(ghostLairTime[ghost],LAIR_KEYS-1)];
+	}
+	
+	/**
+	 * Returns the longest time a ghost may spend in the lair (lair times only decrease with the level).
+	 */
+	private static int _maxLairTime()
+	{
+		int max=COMMON_LAIR_TIME;
+		
+		for(GHOST ghost : GHOST.values())
+			max=Math.max(max,ghost.initialLairTime);
+		
+		return max;
+	}
+	
+	/**
+	 * Computes the Zobrist hash of the maze and all the characters.
+	 */
+	private long _hashCharacters()
+	{
+		long h=MAZE_KEYS[mazeIndex]^_pacManKey();
+		
+		for(int i=0;i<NUM_GHOSTS;i++)
+			h^=_ghostKey(i);
+		
+		return h;
+	}
+	
+	/**
+	 * Computes the Zobrist hash of the pills and power pills that have been eaten.
+	 */
+	private long _hashPills()
+	{
+		return _hashCleared(pills,currentMaze.pillKeys)^_hashCleared(powerPills,currentMaze.powerPillKeys);
+	}
+
+	/**
+	 * Returns the keys of all the bits not set, XOR-ed together. Only the cleared bits are visited.
+	 */
+	private static long _hashCleared(long[] words,long[] keys)
+	{
+		long h=0;
+
+		for(int i=0;i<words.length;i++)
+		{
+			long cleared=~words[i];
+
+			while(cleared!=0)
+			{
+				int bit=(i<<6)+Long.numberOfTrailingZeros(cleared);
+
+				if(bit>=keys.length)
+					break;
+
+				h^=keys[bit];
+				cleared&=cleared-1;
+			}
+		}
+
+		return h;
 	}
 	
 	/**
@@ -183,11 +457,13 @@ public final class Game
 	 */
 	private void _initGhosts()
 	{
-		ghosts=new EnumMap<GHOST, Ghost>(GHOST.class);
-					
-		for(GHOST ghostType : GHOST.values())
-			ghosts.put(ghostType,new Ghost(ghostType,currentMaze.lairNodeIndex,0,
-					(int)(ghostType.initialLairTime*(Math.pow(LAIR_REDUCTION,levelCount%LEVEL_RESET_REDUCTION))),MOVE.NEUTRAL));
+		for(int i=0;i<NUM_GHOSTS;i++)
+		{
+			ghostNodeIndex[i]=currentMaze.lairNodeIndex;
+			ghostEdibleTime[i]=0;
+			ghostLairTime[i]=INITIAL_LAIR_TIMES[(levelCount%LEVEL_RESET_REDUCTION)*NUM_GHOSTS+i];
+			ghostLastMove[i]=MOVE.NEUTRAL.ordinal();
+		}
 	}
 
 	/**
@@ -203,13 +479,13 @@ public final class Game
 		StringBuilder sb=new StringBuilder();
 
 		sb.append(mazeIndex+","+totalTime+","+score+","+currentLevelTime+","+levelCount+","
-				+pacman.currentNodeIndex+","+pacman.lastMoveMade+","+pacman.numberOfLivesRemaining+","+pacman.hasReceivedExtraLife+",");
+				+pacmanNodeIndex+","+MOVES[pacmanLastMove]+","+pacmanLivesRemaining+","+pacmanReceivedExtraLife+",");
 
-		for(Ghost ghost : ghosts.values())
-			sb.append(ghost.currentNodeIndex+","+ghost.edibleTime+","+ghost.lairTime+","+ghost.lastMoveMade+",");
+		for(int i=0;i<NUM_GHOSTS;i++)
+			sb.append(ghostNodeIndex[i]+","+ghostEdibleTime[i]+","+ghostLairTime[i]+","+MOVES[ghostLastMove[i]]+",");
 
 		for(int i=0;i<currentMaze.pillIndices.length;i++)
-			if(pills.get(i))
+			if(_get(pills,i))
 				sb.append("1");
 			else
 				sb.append("0");
@@ -217,7 +493,7 @@ public final class Game
 		sb.append(",");
 		
 		for(int i=0;i<currentMaze.powerPillIndices.length;i++)
-			if(powerPills.get(i))
+			if(_get(powerPills,i))
 				sb.append("1");
 			else
 				sb.append("0");
@@ -228,9 +504,9 @@ public final class Game
 		sb.append(pacmanWasEaten);
 		sb.append(",");	
 		
-		for(GHOST ghost : GHOST.values())
+		for(int i=0;i<NUM_GHOSTS;i++)
 		{
-			sb.append(ghostsEaten.get(ghost));
+			sb.append((ghostsEaten&(1<<i))!=0);
 			sb.append(",");
 		}
 		
@@ -243,7 +519,7 @@ public final class Game
 	
 	/**
 	 * Sets the game state from a string: the inverse of getGameState(). It reconstructs
-	 * all the game's variables from the string.
+	 * all the game's variables from the string. Any moves recorded by makeMove() are discarded.
 	 *
 	 * @param gameState The game state represented as a string
 	 */
@@ -259,58 +535,203 @@ public final class Game
 		currentLevelTime=Integer.parseInt(values[index++]);
 		levelCount=Integer.parseInt(values[index++]);
 		
-		pacman=new PacMan(Integer.parseInt(values[index++]),MOVE.valueOf(values[index++]),
-				Integer.parseInt(values[index++]),Boolean.parseBoolean(values[index++]));
-		
-		ghosts=new EnumMap<GHOST, Ghost>(GHOST.class);
+		pacmanNodeIndex=Integer.parseInt(values[index++]);
+		pacmanLastMove=MOVE.valueOf(values[index++]).ordinal();
+		pacmanLivesRemaining=Integer.parseInt(values[index++]);
+		pacmanReceivedExtraLife=Boolean.parseBoolean(values[index++]);
 		
-		for(GHOST ghostType : GHOST.values())
-			ghosts.put(ghostType,new Ghost(ghostType,Integer.parseInt(values[index++]),Integer.parseInt(values[index++]),
-					Integer.parseInt(values[index++]),MOVE.valueOf(values[index++])));
+		for(int i=0;i<NUM_GHOSTS;i++)
+		{
+			ghostNodeIndex[i]=Integer.parseInt(values[index++]);
+			ghostEdibleTime[i]=Integer.parseInt(values[index++]);
+			ghostLairTime[i]=Integer.parseInt(values[index++]);
+			ghostLastMove[i]=MOVE.valueOf(values[index++]).ordinal();
+		}
 			
-		_setPills(currentMaze=mazes[mazeIndex]);
+		_setPills(_enterMaze());
 		
 		for(int i=0;i<values[index].length();i++)
-			if(values[index].charAt(i)=='1')
-				pills.set(i);
-			else
-				pills.clear(i);
+			if(values[index].charAt(i)!='1')
+				pills[i>>>6]&=~(1L<<i);
 		
 		index++;
 		
 		for(int i=0;i<values[index].length();i++)
-			if(values[index].charAt(i)=='1')
-				powerPills.set(i);		
-			else
-				powerPills.clear(i);
+			if(values[index].charAt(i)!='1')
+				powerPills[i>>>6]&=~(1L<<i);
 		
 		timeOfLastGlobalReversal=Integer.parseInt(values[++index]);			
 		pacmanWasEaten=Boolean.parseBoolean(values[++index]);
 		
-		ghostsEaten=new EnumMap<GHOST,Boolean>(GHOST.class);
+		ghostsEaten=0;
 		
-		for(GHOST ghost : GHOST.values())
-			ghostsEaten.put(ghost,Boolean.parseBoolean(values[++index]));
+		for(int i=0;i<NUM_GHOSTS;i++)
+			if(Boolean.parseBoolean(values[++index]))
+				ghostsEaten|=1<<i;
 		
 		pillWasEaten=Boolean.parseBoolean(values[++index]);
 		powerPillWasEaten=Boolean.parseBoolean(values[++index]);
+		
+		hash=_hashCharacters();
+		pillHash=_hashPills();
+		numDeltas=0;
 	}
-	
+
+	/**
+	 * Returns the number of bytes written by writeGameState(). The size is fixed for a given maze since it
+	 * depends only on the number of pills and power pills.
+	 *
+	 * @return The size of the binary game state
+	 */
+	public int getGameStateSize()
+	{
+		return GAME_STATE_HEADER_BYTES+8*(pills.length+powerPills.length);
+	}
+
+	/**
+	 * Writes the game state to the buffer supplied as a fixed-layout binary record: the binary counterpart of
+	 * getGameState() that is considerably faster and more compact. The variables are written in the following
+	 * order (the pills are written as the raw words of their bitsets):
+	 *
+	 * mazeIndex (byte), levelCount (short), totalTime (int), score (int), currentLevelTime (short),
+	 * timeOfLastGlobalReversal (int), ghostEatMultiplier (short), pacmanNodeIndex (int), pacmanLastMove (byte),
+	 * pacmanLivesRemaining (byte), flags (byte), ghostsEaten (byte), for each ghost: nodeIndex (int),
+	 * edibleTime (short), lairTime (short), lastMove (byte), then the pills and power pills (longs). The node
+	 * indices are ints as custom mazes (see MazeLoader) may have more nodes than a short can represent.
+	 *
+	 * The flags are, from the lowest bit: pacmanReceivedExtraLife, gameOver, pacmanWasEaten, pillWasEaten and
+	 * powerPillWasEaten. The buffer's byte order is used.
+	 *
+	 * @param buffer The buffer to write to, with at least getGameStateSize() bytes remaining
+	 */
+	public void writeGameState(ByteBuffer buffer)
+	{
+		buffer.put((byte)mazeIndex);
+		buffer.putShort((short)levelCount);
+		buffer.putInt(totalTime);
+		buffer.putInt(score);
+		buffer.putShort((short)currentLevelTime);
+		buffer.putInt(timeOfLastGlobalReversal);
+		buffer.putShort((short)ghostEatMultiplier);
+		buffer.putInt(pacmanNodeIndex);
+		buffer.put((byte)pacmanLastMove);
+		buffer.put((byte)pacmanLivesRemaining);
+		buffer.put((byte)((pacmanReceivedExtraLife ? 1 : 0) | (gameOver ? 2 : 0) | (pacmanWasEaten ? 4 : 0)
+				| (pillWasEaten ? 8 : 0) | (powerPillWasEaten ? 16 : 0)));
+		buffer.put((byte)ghostsEaten);
+
+		for(int i=0;i<NUM_GHOSTS;i++)
+		{
+			buffer.putInt(ghostNodeIndex[i]);
+			buffer.putShort((short)ghostEdibleTime[i]);
+			buffer.putShort((short)ghostLairTime[i]);
+			buffer.put((byte)ghostLastMove[i]);
+		}
+
+		for(int i=0;i<pills.length;i++)
+			buffer.putLong(pills[i]);
+
+		for(int i=0;i<powerPills.length;i++)
+			buffer.putLong(powerPills[i]);
+	}
+
+	/**
+	 * Reads the game state from the buffer supplied: the inverse of writeGameState(). It reconstructs all the
+	 * game's variables from the binary record. Any moves recorded by makeMove() are discarded.
+	 *
+	 * @param buffer The buffer to read from
+	 */
+	public void readGameState(ByteBuffer buffer)
+	{
+		mazeIndex=buffer.get();
+		levelCount=buffer.getShort();
+		totalTime=buffer.getInt();
+		score=buffer.getInt();
+		currentLevelTime=buffer.getShort();
+		timeOfLastGlobalReversal=buffer.getInt();
+		ghostEatMultiplier=buffer.getShort();
+		pacmanNodeIndex=buffer.getInt();
+		pacmanLastMove=buffer.get();
+		pacmanLivesRemaining=buffer.get();
+
+		int flags=buffer.get();
+
+		pacmanReceivedExtraLife=(flags&1)!=0;
+		gameOver=(flags&2)!=0;
+		pacmanWasEaten=(flags&4)!=0;
+		pillWasEaten=(flags&8)!=0;
+		powerPillWasEaten=(flags&16)!=0;
+		ghostsEaten=buffer.get();
+
+		for(int i=0;i<NUM_GHOSTS;i++)
+		{
+			ghostNodeIndex[i]=buffer.getInt();
+			ghostEdibleTime[i]=buffer.getShort();
+			ghostLairTime[i]=buffer.getShort();
+			ghostLastMove[i]=buffer.get();
+		}
+
+		_setPills(_enterMaze());
+
+		for(int i=0;i<pills.length;i++)
+			pills[i]=buffer.getLong();
+
+		for(int i=0;i<powerPills.length;i++)
+			powerPills[i]=buffer.getLong();
+
+		hash=_hashCharacters();
+		pillHash=_hashPills();
+		numDeltas=0;
+	}
+
 	/**
 	 * Returns an exact copy of the game. This may be used for forward searches
-	 * such as minimax. The copying is relatively efficient.
+	 * such as minimax. The state of the game is held in primitive fields and arrays
+	 * so that copying reduces to a handful of array copies. The copy continues the
+	 * sequence of pseudo-random numbers from the current position of this game.
 	 *
 	 * @return the game
 	 */
 	public Game copy()
 	{
 		Game copy=new Game();
+		
+		copyInto(copy);
+			
+		return copy;	
+	}
+	
+	/**
+	 * Overwrites the state of the game supplied with the state of this game such that it
+	 * becomes an exact copy, just like a game returned by copy(). The arrays of the target
+	 * are re-used, so no objects are created. Any moves recorded by makeMove() on the
+	 * target are discarded.
+	 *
+	 * @param copy The game to be overwritten
+	 */
+	public void copyInto(Game copy)
+	{
+		copy.rngState=rngState;
+		copy.currentMaze=currentMaze;
+		
+		if(copy.pills==null || copy.pills.length!=pills.length)
+			copy.pills=new long[pills.length];
+		
+		if(copy.powerPills==null || copy.powerPills.length!=powerPills.length)
+			copy.powerPills=new long[powerPills.length];
+		
+		System.arraycopy(pills,0,copy.pills,0,pills.length);
+		System.arraycopy(powerPills,0,copy.powerPills,0,powerPills.length);
+		
+		copy.corridorPillsCounted=corridorPillsCounted;
+		
+		if(corridorPillsCounted)
+		{
+			if(copy.corridorPills==null || copy.corridorPills.length!=corridorPills.length)
+				copy.corridorPills=new int[corridorPills.length];
 			
-		copy.seed=seed;
-		copy.rnd=new Random(seed);
-		copy.currentMaze=currentMaze;		
-		copy.pills=(BitSet)pills.clone();
-		copy.powerPills=(BitSet)powerPills.clone();		
+			System.arraycopy(corridorPills,0,copy.corridorPills,0,corridorPills.length);
+		}
 		copy.mazeIndex=mazeIndex;
 		copy.levelCount=levelCount;
 		copy.currentLevelTime=currentLevelTime;		
@@ -322,18 +743,28 @@ public final class Game
 		copy.pacmanWasEaten=pacmanWasEaten;
 		copy.pillWasEaten=pillWasEaten;
 		copy.powerPillWasEaten=powerPillWasEaten;		
-		copy.pacman=pacman.copy();
-		
-		copy.ghostsEaten=new EnumMap<GHOST,Boolean>(GHOST.class);
-		copy.ghosts=new EnumMap<GHOST,Ghost>(GHOST.class);
-		
-		for(GHOST ghostType : GHOST.values())
+		copy.ghostsEaten=ghostsEaten;
+		copy.pacmanNodeIndex=pacmanNodeIndex;
+		copy.pacmanLastMove=pacmanLastMove;
+		copy.pacmanLivesRemaining=pacmanLivesRemaining;
+		copy.pacmanReceivedExtraLife=pacmanReceivedExtraLife;
+		copy.hash=hash;
+		copy.pillHash=pillHash;
+		
+		if(copy.ghostNodeIndex==null)
 		{
-			copy.ghosts.put(ghostType,ghosts.get(ghostType).copy());
-			copy.ghostsEaten.put(ghostType,ghostsEaten.get(ghostType));
+			copy.ghostNodeIndex=new int[NUM_GHOSTS];
+			copy.ghostEdibleTime=new int[NUM_GHOSTS];
+			copy.ghostLairTime=new int[NUM_GHOSTS];
+			copy.ghostLastMove=new int[NUM_GHOSTS];
 		}
-			
-		return copy;	
+		
+		System.arraycopy(ghostNodeIndex,0,copy.ghostNodeIndex,0,NUM_GHOSTS);
+		System.arraycopy(ghostEdibleTime,0,copy.ghostEdibleTime,0,NUM_GHOSTS);
+		System.arraycopy(ghostLairTime,0,copy.ghostLairTime,0,NUM_GHOSTS);
+		System.arraycopy(ghostLastMove,0,copy.ghostLastMove,0,NUM_GHOSTS);
+		
+		copy.numDeltas=0;
 	}
 
 	/////////////////////////////////////////////////////////////////////////////
@@ -380,6 +811,213 @@ public final class Game
 		
 		updateGame();
 	}
+	
+	/**
+	 * Advances the game like advanceGame() with the ghosts' moves supplied as an array (in the order
+	 * of the GHOST ordinals, starting at the offset given) instead of an EnumMap. This is used by
+	 * GameBatch to step many games without creating any objects.
+	 *
+	 * @param pacManMove The move supplied by the Ms Pac-Man controller
+	 * @param ghostMoves The moves of the ghosts, or null for the ghosts to keep their last moves
+	 * @param offset The index of the first ghost's move
+	 */
+	void advanceGame(MOVE pacManMove,MOVE[] ghostMoves,int offset)
+	{
+		updatePacMan(pacManMove);
+
+		if(!_reverseGhosts(false))
+			for(int i=0;i<NUM_GHOSTS;i++)
+				_updateGhost(i,ghostMoves==null ? MOVES[ghostLastMove[i]] : ghostMoves[offset+i]);
+
+		updateGame();
+	}
+
+	/**
+	 * Advances the game until a decision is required, the equivalent of calling advanceGame() repeatedly
+	 * with the current moves: Ms Pac-Man follows the corridor she is in and the ghosts keep their last
+	 * moves. The game is advanced until Ms Pac-Man reaches a junction (or has no direction to follow),
+	 * a ghost requires an action (see doesGhostRequireAction()), a pill or power pill is eaten, a ghost
+	 * or Ms Pac-Man is eaten, a global reversal takes place, the level changes or the game is over, or
+	 * until the maximum number of ticks has been played. No ticks are played if a decision is required
+	 * already. This allows a search to expand macro-moves from junction to junction.
+	 *
+	 * @param maxTicks The maximum number of ticks to play
+	 * @return The number of ticks played
+	 */
+	public int advanceUntilDecision(int maxTicks)
+	{
+		return advanceUntilDecision(maxTicks,true);
+	}
+	
+	/**
+	 * Advances the game until a decision is required, like advanceUntilDecision(int), but optionally
+	 * continues when a pill is eaten: the score still accounts for all pills eaten. Eating a power pill
+	 * always stops the game.
+	 *
+	 * @param maxTicks The maximum number of ticks to play
+	 * @param stopOnPill Whether to stop when a pill is eaten
+	 * @return The number of ticks played
+	 */
+	public int advanceUntilDecision(int maxTicks,boolean stopOnPill)
+	{
+		int ticks=0;
+		
+		while(ticks<maxTicks && !gameOver)
+		{
+			//Ms Pac-Man follows the corridor, so she needs a decision unless there is exactly one way to go
+			MOVE[] moves=currentMaze.possibleMoves[pacmanNodeIndex*MOVES.length+pacmanLastMove];
+			
+			if(moves==null || moves.length!=1)
+				break;
+			
+			boolean ghostRequiresAction=false;
+			
+			for(int i=0;i<NUM_GHOSTS && !ghostRequiresAction;i++)
+				ghostRequiresAction=doesGhostRequireAction(GHOSTS[i]);
+			
+			if(ghostRequiresAction)
+				break;
+			
+			int level=levelCount;
+			int lastGlobalReversal=timeOfLastGlobalReversal;
+			
+			updatePacMan(moves[0]);
+			
+			if(!_reverseGhosts(false))
+				for(int i=0;i<NUM_GHOSTS;i++)
+					_updateGhost(i,MOVES[ghostLastMove[i]]);
+			
+			updateGame();
+			ticks++;
+			
+			if(pacmanWasEaten || ghostsEaten!=0 || powerPillWasEaten || (stopOnPill && pillWasEaten) 
+					|| levelCount!=level || timeOfLastGlobalReversal!=lastGlobalReversal)
+				break;
+		}
+		
+		return ticks;
+	}
+	
+	/**
+	 * Advances the game exactly like advanceGameWithPowerPillReverseOnly() but records
+	 * the changes made to the game state such that they may be undone by a subsequent
+	 * call to unmakeMove(). Moves may be nested, which allows a tree search to walk a
+	 * single game in place instead of copying the game at every node: make a move,
+	 * search the subtree, then unmake the move. The deltas are re-used, so no objects
+	 * are created once the deepest ply has been reached.
+	 * 
+	 * Note: the positions of the characters, the lair and edible times, the pills eaten,
+	 * the outcome of feasting, the changes of level and the state of the pseudo-random
+	 * number generator are all restored. 
+	 *
+	 * @param pacManMove The move supplied by the Ms Pac-Man controller
+	 * @param ghostMoves The moves supplied by the ghosts controller
+	 */
+	public void makeMove(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		if(deltas==null)
+			deltas=new GameDelta[16];
+		else if(numDeltas==deltas.length)
+			deltas=Arrays.copyOf(deltas,numDeltas*2);
+		
+		GameDelta delta=deltas[numDeltas];
+		
+		if(delta==null)
+			delta=deltas[numDeltas]=new GameDelta();
+		
+		numDeltas++;
+		
+		delta.mazeIndex=mazeIndex;
+		delta.maze=currentMaze;
+		delta.levelCount=levelCount;
+		delta.currentLevelTime=currentLevelTime;
+		delta.totalTime=totalTime;
+		delta.score=score;
+		delta.ghostEatMultiplier=ghostEatMultiplier;
+		delta.timeOfLastGlobalReversal=timeOfLastGlobalReversal;
+		delta.gameOver=gameOver;
+		delta.pacmanWasEaten=pacmanWasEaten;
+		delta.pillWasEaten=pillWasEaten;
+		delta.powerPillWasEaten=powerPillWasEaten;
+		delta.ghostsEaten=ghostsEaten;
+		delta.pacmanNodeIndex=pacmanNodeIndex;
+		delta.pacmanLastMove=pacmanLastMove;
+		delta.pacmanLivesRemaining=pacmanLivesRemaining;
+		delta.pacmanReceivedExtraLife=pacmanReceivedExtraLife;
+		delta.hash=hash;
+		delta.pillHash=pillHash;
+		delta.rngState=rngState;
+		System.arraycopy(ghostNodeIndex,0,delta.ghostNodeIndex,0,NUM_GHOSTS);
+		System.arraycopy(ghostEdibleTime,0,delta.ghostEdibleTime,0,NUM_GHOSTS);
+		System.arraycopy(ghostLairTime,0,delta.ghostLairTime,0,NUM_GHOSTS);
+		System.arraycopy(ghostLastMove,0,delta.ghostLastMove,0,NUM_GHOSTS);
+		delta.pillEaten=-1;
+		delta.powerPillEaten=-1;
+		delta.levelChanged=false;
+		
+		recording=delta;
+		advanceGameWithPowerPillReverseOnly(pacManMove,ghostMoves);
+		recording=null;
+	}
+	
+	/**
+	 * Undoes the last move made using makeMove(), restoring the game to the exact state
+	 * it was in before that move was made.
+	 */
+	public void unmakeMove()
+	{
+		if(numDeltas==0)
+			throw new IllegalStateException("There is no move to unmake");
+		
+		GameDelta delta=deltas[--numDeltas];
+		
+		if(delta.levelChanged)
+		{
+			long[] tmp=pills;
+			pills=delta.pills;
+			delta.pills=tmp;
+			
+			tmp=powerPills;
+			powerPills=delta.powerPills;
+			delta.powerPills=tmp;
+		}
+		
+		if(delta.pillEaten>=0)
+			pills[delta.pillEaten>>>6]|=1L<<delta.pillEaten;
+		
+		if(delta.powerPillEaten>=0)
+			powerPills[delta.powerPillEaten>>>6]|=1L<<delta.powerPillEaten;
+		
+		mazeIndex=delta.mazeIndex;
+		currentMaze=delta.maze;
+		levelCount=delta.levelCount;
+		currentLevelTime=delta.currentLevelTime;
+		totalTime=delta.totalTime;
+		score=delta.score;
+		ghostEatMultiplier=delta.ghostEatMultiplier;
+		timeOfLastGlobalReversal=delta.timeOfLastGlobalReversal;
+		gameOver=delta.gameOver;
+		pacmanWasEaten=delta.pacmanWasEaten;
+		pillWasEaten=delta.pillWasEaten;
+		powerPillWasEaten=delta.powerPillWasEaten;
+		ghostsEaten=delta.ghostsEaten;
+		pacmanNodeIndex=delta.pacmanNodeIndex;
+		pacmanLastMove=delta.pacmanLastMove;
+		pacmanLivesRemaining=delta.pacmanLivesRemaining;
+		pacmanReceivedExtraLife=delta.pacmanReceivedExtraLife;
+		hash=delta.hash;
+		pillHash=delta.pillHash;
+		rngState=delta.rngState;
+		System.arraycopy(delta.ghostNodeIndex,0,ghostNodeIndex,0,NUM_GHOSTS);
+		System.arraycopy(delta.ghostEdibleTime,0,ghostEdibleTime,0,NUM_GHOSTS);
+		System.arraycopy(delta.ghostLairTime,0,ghostLairTime,0,NUM_GHOSTS);
+		System.arraycopy(delta.ghostLastMove,0,ghostLastMove,0,NUM_GHOSTS);
+		
+		if(delta.levelChanged)
+			corridorPillsCounted=false;
+		else if(delta.pillEaten>=0)
+			_updateCorridorPills(currentMaze.pillIndices[delta.pillEaten],1);
+	}
 		
 	/**
 	 * Updates the state of Ms Pac-Man given the move returned by the controller.
@@ -402,7 +1040,7 @@ public final class Game
 	{
 		ghostMoves=_completeGhostMoves(ghostMoves);
 		
-		if(!_reverseGhosts(ghostMoves,false))
+		if(!_reverseGhosts(false))
 			_updateGhosts(ghostMoves);
 	}
 	
@@ -415,7 +1053,7 @@ public final class Game
 	public void updateGhostsWithForcedReverse(EnumMap<GHOST,MOVE> ghostMoves)
 	{
 		ghostMoves=_completeGhostMoves(ghostMoves);
-		_reverseGhosts(ghostMoves,true);
+		_reverseGhosts(true);
 	}
 	
 	/**
@@ -462,10 +1100,16 @@ public final class Game
 	 */
 	private void _updateLairTimes()
 	{
-		for(Ghost ghost : ghosts.values())
-			if(ghost.lairTime>0)
-				if(--ghost.lairTime==0)
-					ghost.currentNodeIndex=currentMaze.initialGhostNodeIndex;
+		for(int i=0;i<NUM_GHOSTS;i++)
+			if(ghostLairTime[i]>0)
+			{
+				hash^=_ghostKey(i);
+				
+				if(--ghostLairTime[i]==0)
+					ghostNodeIndex[i]=currentMaze.initialGhostNodeIndex;
+				
+				hash^=_ghostKey(i);
+			}
 	}
 	
 	/**
@@ -473,10 +1117,10 @@ public final class Game
 	 */
 	private void _updatePacManExtraLife()
 	{
-		if(!pacman.hasReceivedExtraLife && score>=EXTRA_LIFE_SCORE)	//award 1 extra life at 10000 points
+		if(!pacmanReceivedExtraLife && score>=EXTRA_LIFE_SCORE)	//award 1 extra life at 10000 points
 		{
-			pacman.hasReceivedExtraLife=true;
-			pacman.numberOfLivesRemaining++;
+			pacmanReceivedExtraLife=true;
+			pacmanLivesRemaining++;
 		}
 	}
 	
@@ -487,32 +1131,36 @@ public final class Game
 	 */
 	private void _updatePacMan(MOVE move)
 	{
-		pacman.lastMoveMade=_correctPacManDir(move);		
-		pacman.currentNodeIndex=pacman.lastMoveMade == MOVE.NEUTRAL ? pacman.currentNodeIndex : 
-			currentMaze.graph[pacman.currentNodeIndex].neighbourhood.get(pacman.lastMoveMade);
+		int lastMoveMade=_correctPacManDir(move);
+		
+		hash^=_pacManKey();
+		pacmanLastMove=lastMoveMade;
+		pacmanNodeIndex=lastMoveMade == NEUTRAL ? pacmanNodeIndex : 
+			currentMaze.neighbours[pacmanNodeIndex*4+lastMoveMade];
+		hash^=_pacManKey();
 	}
 
 	/**
 	 * _correct pac man dir.
 	 *
 	 * @param direction the direction
-	 * @return the mOVE
+	 * @return the ordinal of the move
 	 */
-	private MOVE _correctPacManDir(MOVE direction)
+	private int _correctPacManDir(MOVE direction)
 	{
-		Node node=currentMaze.graph[pacman.currentNodeIndex];
+		int moveMask=currentMaze.moveMasks[pacmanNodeIndex];
 		
 		//direction is correct, return it
-		if(node.neighbourhood.containsKey(direction))
-			return direction;
+		if(direction!=null && (moveMask&(1<<direction.ordinal()))!=0)
+			return direction.ordinal();
 		else
 		{
 			//try to use previous direction (i.e., continue in the same direction)
-			if(node.neighbourhood.containsKey(pacman.lastMoveMade))
-				return pacman.lastMoveMade;
+			if((moveMask&(1<<pacmanLastMove))!=0)
+				return pacmanLastMove;
 			//else stay put
 			else
-				return MOVE.NEUTRAL;
+				return NEUTRAL;
 		}
 	}
 
@@ -525,18 +1173,38 @@ public final class Game
 	{
 		for(Entry<GHOST,MOVE> entry : moves.entrySet())
 		{
-			Ghost ghost=ghosts.get(entry.getKey());
-
-			if(ghost.lairTime==0)
+			MOVE lastMoveMade=_updateGhost(entry.getKey().ordinal(),entry.getValue());
+			
+			if(lastMoveMade!=null)
+				moves.put(entry.getKey(), lastMoveMade);
+		}
+	}
+	
+	/**
+	 * _update ghost.
+	 *
+	 * @param ghost the ordinal of the ghost
+	 * @param move the move
+	 * @return the move made or null if the ghost did not move
+	 */
+	private MOVE _updateGhost(int ghost,MOVE move)
+	{
+		if(ghostLairTime[ghost]==0)
+		{
+			if(ghostEdibleTime[ghost]==0 || ghostEdibleTime[ghost]%GHOST_SPEED_REDUCTION!=0)
 			{
-				if(ghost.edibleTime==0 || ghost.edibleTime%GHOST_SPEED_REDUCTION!=0)
-				{
-					ghost.lastMoveMade=_checkGhostDir(ghost,entry.getValue());					
-					moves.put(entry.getKey(), ghost.lastMoveMade);					
-					ghost.currentNodeIndex=currentMaze.graph[ghost.currentNodeIndex].neighbourhood.get(ghost.lastMoveMade);
-				}
+				MOVE lastMoveMade=_checkGhostDir(ghost,move);
+				
+				hash^=_ghostKey(ghost);
+				ghostLastMove[ghost]=lastMoveMade.ordinal();
+				ghostNodeIndex[ghost]=currentMaze.neighbours[ghostNodeIndex[ghost]*4+lastMoveMade.ordinal()];
+				hash^=_ghostKey(ghost);
+				
+				return lastMoveMade;
 			}
 		}
+		
+		return null;
 	}
 	
 	private EnumMap<GHOST,MOVE> _completeGhostMoves(EnumMap<GHOST,MOVE> moves)
@@ -546,7 +1214,7 @@ public final class Game
 			moves=new EnumMap<GHOST,MOVE>(GHOST.class);
 			
 			for(GHOST ghostType : GHOST.values())
-				moves.put(ghostType,ghosts.get(ghostType).lastMoveMade);
+				moves.put(ghostType,MOVES[ghostLastMove[ghostType.ordinal()]]);
 		}
 		
 		if(moves.size()<NUM_GHOSTS)
@@ -560,26 +1228,28 @@ public final class Game
 	/**
 	 * _check ghost dir.
 	 *
-	 * @param ghost the ghost
+	 * @param ghost the ordinal of the ghost
 	 * @param direction the direction
 	 * @return the mOVE
 	 */
-	private MOVE _checkGhostDir(Ghost ghost,MOVE direction)
+	private MOVE _checkGhostDir(int ghost,MOVE direction)
 	{
-		//Gets the neighbours of the node with the node that would correspond to reverse removed
-		Node node=currentMaze.graph[ghost.currentNodeIndex];
+		int nodeIndex=ghostNodeIndex[ghost];
+		int moveMask=currentMaze.moveMasks[nodeIndex];
+		int lastMoveMade=ghostLastMove[ghost];
 		
 		//The direction is possible and not opposite to the previous direction of that ghost
-		if(node.neighbourhood.containsKey(direction) && direction!=ghost.lastMoveMade.opposite())
+		if(direction!=null && (moveMask&(1<<direction.ordinal()))!=0 && direction.ordinal()!=OPPOSITES[lastMoveMade])
 			return direction;
 		else
 		{
-			if(node.neighbourhood.containsKey(ghost.lastMoveMade))
-				return ghost.lastMoveMade;
+			if((moveMask&(1<<lastMoveMade))!=0)
+				return MOVES[lastMoveMade];
 			else
 			{
-				MOVE[] moves=node.allPossibleMoves.get(ghost.lastMoveMade);
-				return moves[rnd.nextInt(moves.length)];				
+				//the moves possible with the one that would correspond to reverse removed
+				MOVE[] moves=currentMaze.possibleMoves[nodeIndex*MOVES.length+lastMoveMade];
+				return moves[_nextInt(moves.length)];				
 			}
 		}
 	}
@@ -591,61 +1261,111 @@ public final class Game
 	{
 		pillWasEaten=false;
 		
-		int pillIndex=currentMaze.graph[pacman.currentNodeIndex].pillIndex;
+		int pillIndex=currentMaze.graph[pacmanNodeIndex].pillIndex;
 
-		if(pillIndex>=0 && pills.get(pillIndex))
+		if(pillIndex>=0 && _get(pills,pillIndex))
 		{
 			score+=PILL;
-			pills.clear(pillIndex);
+			pills[pillIndex>>>6]&=~(1L<<pillIndex);
+			pillHash^=currentMaze.pillKeys[pillIndex];
+			_updateCorridorPills(pacmanNodeIndex,-1);
+			
+			if(recording!=null)
+				recording.pillEaten=pillIndex;
 			pillWasEaten=true;
 		}
 	}
 	
 	/**
-	 * _eat power pill.
+	 * Adds the change supplied to the number of pills of the corridor the node belongs to, if any.
+	 *
+	 * @param nodeIndex the node of the pill
+	 * @param change the change of the number of pills
 	 */
-	private void _eatPowerPill()
+	private void _updateCorridorPills(int nodeIndex,int change)
 	{
-		powerPillWasEaten=false;	
+		if(!corridorPillsCounted)
+			return;
 		
-		int powerPillIndex=currentMaze.graph[pacman.currentNodeIndex].powerPillIndex;
+		int corridor=currentMaze.corridors.getCorridor(nodeIndex);
 		
-		if(powerPillIndex>=0 && powerPills.get(powerPillIndex))
+		if(corridor>=0)
+			corridorPills[corridor]+=change;
+	}
+	
+	/**
+	 * _eat power pill.
+	 */
+	private void _eatPowerPill()
+	{
+		powerPillWasEaten=false;	
+		
+		int powerPillIndex=currentMaze.graph[pacmanNodeIndex].powerPillIndex;
+		
+		if(powerPillIndex>=0 && _get(powerPills,powerPillIndex))
 		{
 			score+=POWER_PILL;
 			ghostEatMultiplier=1;
-			powerPills.clear(powerPillIndex);
+			powerPills[powerPillIndex>>>6]&=~(1L<<powerPillIndex);
+			pillHash^=currentMaze.powerPillKeys[powerPillIndex];
 			
-			int newEdibleTime=(int)(EDIBLE_TIME*(Math.pow(EDIBLE_TIME_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));
+			if(recording!=null)
+				recording.powerPillEaten=powerPillIndex;
 			
-			for(Ghost ghost : ghosts.values())
-				if(ghost.lairTime==0)
-					ghost.edibleTime=newEdibleTime;
+			int newEdibleTime=EDIBLE_TIMES[levelCount%LEVEL_RESET_REDUCTION];
+			
+			for(int i=0;i<NUM_GHOSTS;i++)
+			{
+				hash^=_ghostKey(i);
+				
+				if(ghostLairTime[i]==0)
+					ghostEdibleTime[i]=newEdibleTime;
 				else
-					ghost.edibleTime=0;
+					ghostEdibleTime[i]=0;
+				
+				hash^=_ghostKey(i);
+			}
 			
 			powerPillWasEaten=true;
 		}
 	}
 	
-	private boolean _reverseGhosts(EnumMap<GHOST,MOVE> moves,boolean force)
+	/**
+	 * Returns a pseudo-random integer in [0,bound) from the game's generator.
+	 */
+	private int _nextInt(int bound)
+	{
+		return SplitMix64.nextInt(rngState=SplitMix64.nextState(rngState),bound);
+	}
+	
+	/**
+	 * Returns a pseudo-random double in [0,1) from the game's generator.
+	 */
+	private double _nextDouble()
+	{
+		return SplitMix64.nextDouble(rngState=SplitMix64.nextState(rngState));
+	}
+	
+	private boolean _reverseGhosts(boolean force)
 	{
 		boolean reversed=false;		
 		boolean globalReverse=false;
 			
-		if(Math.random()<GHOST_REVERSAL)
+		if(_nextDouble()<GHOST_REVERSAL)
 			globalReverse=true;
 		
-		for(Entry<GHOST,MOVE> entry : moves.entrySet())
+		for(int ghost=0;ghost<NUM_GHOSTS;ghost++)
 		{
-			Ghost ghost=ghosts.get(entry.getKey());
-		
-			if(currentLevelTime>1 && ghost.lairTime==0 && ghost.lastMoveMade!=MOVE.NEUTRAL)
+			if(currentLevelTime>1 && ghostLairTime[ghost]==0 && ghostLastMove[ghost]!=MOVE.NEUTRAL.ordinal())
 			{
 				if(force || (powerPillWasEaten || globalReverse))
 				{
-					ghost.lastMoveMade=ghost.lastMoveMade.opposite();
-					ghost.currentNodeIndex=currentMaze.graph[ghost.currentNodeIndex].neighbourhood.get(ghost.lastMoveMade);
+					MOVE lastMoveMade=MOVES[ghostLastMove[ghost]].opposite();
+					
+					hash^=_ghostKey(ghost);
+					ghostLastMove[ghost]=lastMoveMade.ordinal();
+					ghostNodeIndex[ghost]=currentMaze.neighbours[ghostNodeIndex[ghost]*4+lastMoveMade.ordinal()];
+					hash^=_ghostKey(ghost);
 					reversed=true;
 					timeOfLastGlobalReversal = totalTime;
 				}
@@ -661,33 +1381,33 @@ public final class Game
 	private void _feast()
 	{		
 		pacmanWasEaten=false;
+		ghostsEaten=0;
 		
-		for(GHOST ghost : GHOST.values())
-			ghostsEaten.put(ghost,false);
-		
-		for(Ghost ghost : ghosts.values())
+		for(int i=0;i<NUM_GHOSTS;i++)
 		{
-			int distance=getShortestPathDistance(pacman.currentNodeIndex, ghost.currentNodeIndex);
+			int distance=getShortestPathDistance(pacmanNodeIndex, ghostNodeIndex[i]);
 			
 			if(distance<=EAT_DISTANCE && distance!=-1)
 			{
-				if(ghost.edibleTime>0)									//pac-man eats ghost
+				if(ghostEdibleTime[i]>0)									//pac-man eats ghost
 				{
 					score+=GHOST_EAT_SCORE*ghostEatMultiplier;
 					ghostEatMultiplier*=2;
-					ghost.edibleTime=0;					
-					ghost.lairTime=(int)(COMMON_LAIR_TIME*(Math.pow(LAIR_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));					
-					ghost.currentNodeIndex=currentMaze.lairNodeIndex;
-					ghost.lastMoveMade=MOVE.NEUTRAL;
+					hash^=_ghostKey(i);
+					ghostEdibleTime[i]=0;					
+					ghostLairTime[i]=COMMON_LAIR_TIMES[levelCount%LEVEL_RESET_REDUCTION];					
+					ghostNodeIndex[i]=currentMaze.lairNodeIndex;
+					ghostLastMove[i]=MOVE.NEUTRAL.ordinal();
+					hash^=_ghostKey(i);
 					
-					ghostsEaten.put(ghost.type, true);
+					ghostsEaten|=1<<i;
 				}
 				else													//ghost eats pac-man
 				{
-					pacman.numberOfLivesRemaining--;
+					pacmanLivesRemaining--;
 					pacmanWasEaten=true;
 					
-					if(pacman.numberOfLivesRemaining<=0)
+					if(pacmanLivesRemaining<=0)
 						gameOver=true;
 					else
 						_levelReset();
@@ -697,9 +1417,13 @@ public final class Game
 			}
 		}
 		
-		for(Ghost ghost : ghosts.values())
-			if(ghost.edibleTime>0)
-				ghost.edibleTime--;
+		for(int i=0;i<NUM_GHOSTS;i++)
+			if(ghostEdibleTime[i]>0)
+			{
+				hash^=_ghostKey(i);
+				ghostEdibleTime[i]--;
+				hash^=_ghostKey(i);
+			}
 	}
 	
 	/**
@@ -711,10 +1435,10 @@ public final class Game
 		if(totalTime+1>MAX_TIME)
 		{
 			gameOver=true;
-			score+=pacman.numberOfLivesRemaining*AWARD_LIFE_LEFT;
+			score+=pacmanLivesRemaining*AWARD_LIFE_LEFT;
 		}
 		//if all pills have been eaten or the time is up...
-		else if((pills.isEmpty() && powerPills.isEmpty()) || currentLevelTime>=LEVEL_LIMIT)
+		else if((_isEmpty(pills) && _isEmpty(powerPills)) || currentLevelTime>=LEVEL_LIMIT)
 			_newLevelReset();
 	}
 
@@ -722,6 +1446,21 @@ public final class Game
 	///////////////////  Query Methods (return only)  ///////////////////////////
 	/////////////////////////////////////////////////////////////////////////////
 
+	/**
+	 * Returns the 64-bit Zobrist hash of the game state. The hash covers the maze, Ms Pac-Man's
+	 * position and last move, each ghost's position, last move, edible time and lair time, and
+	 * the pills and power pills still available. It is updated incrementally as the game is
+	 * advanced (and restored by unmakeMove()), so this method is as cheap as a field access.
+	 * Games in the same state have the same hash; distinct states may collide but are very
+	 * unlikely to. This may be used for transposition tables and similar caches.
+	 *
+	 * @return the Zobrist hash of the game state
+	 */
+	public long getHash()
+	{
+		return hash^pillHash;
+	}
+	
 	/**
 	 * Returns whether pacman was eaten in the last time step
 	 * 
@@ -739,18 +1478,12 @@ public final class Game
 	 */
 	public boolean wasGhostEaten(GHOST ghost)
 	{
-		return ghostsEaten.get(ghost);
+		return (ghostsEaten&(1<<ghost.ordinal()))!=0;
 	}
 	
 	public int getNumGhostsEaten()
 	{
-		int count=0;
-		
-		for(GHOST ghost : GHOST.values())
-			if(ghostsEaten.get(ghost))
-				count++;
-		
-		return count;
+		return Integer.bitCount(ghostsEaten);
 	}
 	
 	/**
@@ -804,6 +1537,41 @@ public final class Game
 		return currentMaze;
 	}
 	
+	/**
+	 * Returns the time the ghosts remain edible for after a power pill has been eaten in the level specified.
+	 *
+	 * @param level The level (0 for the first level)
+	 * @return The edible time
+	 */
+	public static int getEdibleTimeForLevel(int level)
+	{
+		return EDIBLE_TIMES[level%LEVEL_RESET_REDUCTION];
+	}
+	
+	/**
+	 * Returns the time a ghost spends in the lair after being eaten in the level specified.
+	 *
+	 * @param level The level (0 for the first level)
+	 * @return The lair time
+	 */
+	public static int getCommonLairTimeForLevel(int level)
+	{
+		return COMMON_LAIR_TIMES[level%LEVEL_RESET_REDUCTION];
+	}
+	
+	/**
+	 * Returns the time the ghost specified spends in the lair at the start of the level specified and 
+	 * whenever Ms Pac-Man loses a life in that level.
+	 *
+	 * @param ghostType The ghost
+	 * @param level The level (0 for the first level)
+	 * @return The initial lair time
+	 */
+	public static int getInitialLairTimeForLevel(GHOST ghostType,int level)
+	{
+		return INITIAL_LAIR_TIMES[(level%LEVEL_RESET_REDUCTION)*NUM_GHOSTS+ghostType.ordinal()];
+	}
+	
 	/**
 	 * Returns the x coordinate of the specified node.
 	 *
@@ -812,7 +1580,7 @@ public final class Game
 	 */
 	public int getNodeXCood(int nodeIndex)
 	{
-		return currentMaze.graph[nodeIndex].x;
+		return currentMaze.x[nodeIndex];
 	}
 	
 	/**
@@ -823,7 +1591,7 @@ public final class Game
 	 */
 	public int getNodeYCood(int nodeIndex)
 	{
-		return currentMaze.graph[nodeIndex].y;
+		return currentMaze.y[nodeIndex];
 	}
 	
 	/**
@@ -885,7 +1653,7 @@ public final class Game
 	 */
 	public boolean isPillStillAvailable(int pillIndex)
 	{
-		return pills.get(pillIndex);
+		return _get(pills,pillIndex);
 	}
 	
 	/**
@@ -896,7 +1664,7 @@ public final class Game
 	 */
 	public boolean isPowerPillStillAvailable(int powerPillIndex)
 	{
-		return powerPills.get(powerPillIndex);
+		return _get(powerPills,powerPillIndex);
 	}
 	
 	/**
@@ -960,7 +1728,7 @@ public final class Game
 	 */
 	public int getPacmanCurrentNodeIndex()
 	{
-		return pacman.currentNodeIndex;
+		return pacmanNodeIndex;
 	}
 	
 	/**
@@ -970,7 +1738,7 @@ public final class Game
 	 */
 	public MOVE getPacmanLastMoveMade()
 	{
-		return pacman.lastMoveMade;
+		return MOVES[pacmanLastMove];
 	}
 	
 	/**
@@ -980,7 +1748,7 @@ public final class Game
 	 */
 	public int getPacmanNumberOfLivesRemaining()
 	{
-		return pacman.numberOfLivesRemaining;
+		return pacmanLivesRemaining;
 	}
 	
 	/**
@@ -991,7 +1759,7 @@ public final class Game
 	 */
 	public int getGhostCurrentNodeIndex(GHOST ghostType)
 	{
-		return ghosts.get(ghostType).currentNodeIndex;
+		return ghostNodeIndex[ghostType.ordinal()];
 	}
 
 	/**
@@ -1002,7 +1770,7 @@ public final class Game
 	 */
 	public MOVE getGhostLastMoveMade(GHOST ghostType)
 	{
-		return ghosts.get(ghostType).lastMoveMade;
+		return MOVES[ghostLastMove[ghostType.ordinal()]];
 	}
 	
 	/**
@@ -1013,7 +1781,7 @@ public final class Game
 	 */
 	public int getGhostEdibleTime(GHOST ghostType)
 	{
-		return ghosts.get(ghostType).edibleTime;
+		return ghostEdibleTime[ghostType.ordinal()];
 	}
 	
 	/**
@@ -1024,7 +1792,7 @@ public final class Game
 	 */
 	public boolean isGhostEdible(GHOST ghostType)
 	{
-		return ghosts.get(ghostType).edibleTime>0;
+		return ghostEdibleTime[ghostType.ordinal()]>0;
 	}
 
 	/**
@@ -1084,7 +1852,7 @@ public final class Game
 	 */
 	public int getNumberOfActivePills()
 	{
-		return pills.cardinality();
+		return _cardinality(pills);
 	}
 	
 	/**
@@ -1094,7 +1862,326 @@ public final class Game
 	 */
 	public int getNumberOfActivePowerPills()
 	{
-		return powerPills.cardinality();
+		return _cardinality(powerPills);
+	}
+	
+	/**
+	 * Returns the corridors of the current maze, i.e., the paths between the junctions (see
+	 * CorridorGraph). Searches may expand whole corridors instead of single nodes or time steps.
+	 *
+	 * @return the corridor graph of the current maze
+	 */
+	public CorridorGraph getCorridorGraph()
+	{
+		return currentMaze.corridors;
+	}
+	
+	/**
+	 * Returns the number of pills still available in the corridor specified (see CorridorGraph).
+	 * Only the pills on the inner nodes of the corridor are counted, not those on the junctions at
+	 * either end. The counts are kept up to date as pills are eaten, so this is a single look-up.
+	 *
+	 * @param corridor the corridor
+	 * @return the number of active pills in the corridor
+	 */
+	public int getCorridorPillCount(int corridor)
+	{
+		if(!corridorPillsCounted)
+			_countCorridorPills();
+		
+		return corridorPills[corridor];
+	}
+	
+	/**
+	 * Returns the active pill nearest to the node specified (see getNearestActivePills(-)).
+	 *
+	 * @param nodeIndex the node index
+	 * @param includePowerPills whether the power pills are considered as well
+	 * @return the node index of the nearest pill, or -1 if there is none
+	 */
+	public int getNearestActivePill(int nodeIndex,boolean includePowerPills)
+	{
+		if(nearestPill==null)
+		{
+			nearestPill=new int[1];
+			nearestPillDistance=new int[1];
+		}
+		
+		return getNearestActivePills(nodeIndex,includePowerPills,nearestPill,nearestPillDistance)>0 ? nearestPill[0] : -1;
+	}
+	
+	/**
+	 * Finds the k active pills nearest to the node specified, where k is the length of the array
+	 * supplied, and writes their node indices and PATH distances into the arrays supplied in order
+	 * of distance. Pills at the same distance are ordered by their pill index; if the power pills
+	 * are included, they follow the pills at the same distance. The nearest pill is thus the one
+	 * getClosestNodeIndexFromNodeIndex(-) returns given the active pills followed by the active
+	 * power pills.
+	 * 
+	 * Rather than computing the distance to every pill, the search expands the corridors of the
+	 * maze (see CorridorGraph) in order of their distance, skipping the pills of corridors that
+	 * have been cleared, and stops as soon as no pill that is further away can be any closer than
+	 * those found. No objects are created.
+	 *
+	 * @param nodeIndex the node index
+	 * @param includePowerPills whether the power pills are considered as well
+	 * @param pillNodeIndices the array the node indices of the pills are written to
+	 * @param distances the array the distances are written to (at least as long as pillNodeIndices)
+	 * @return the number of pills found, less than the length of the array only if there are fewer active pills
+	 */
+	public int getNearestActivePills(int nodeIndex,boolean includePowerPills,int[] pillNodeIndices,int[] distances)
+	{
+		if(pillNodeIndices.length==0)
+			return 0;
+		
+		if(!corridorPillsCounted)
+			_countCorridorPills();
+		
+		CorridorGraph corridors=currentMaze.corridors;
+		int found=0;
+		
+		//there are few power pills, so their distances are looked up directly (those that cannot be reached are ignored)
+		if(includePowerPills)
+			for(int i=0;i<currentMaze.powerPillIndices.length;i++)
+				if(_get(powerPills,i))
+				{
+					int distance=getShortestPathDistance(nodeIndex,currentMaze.powerPillIndices[i]);
+					
+					if(distance>=0)
+						found=_offerPill(currentMaze.powerPillIndices[i],distance,found,pillNodeIndices,distances);
+				}
+		
+		_startPillSearch(corridors);
+		
+		int size=0;
+		int corridor=corridors.getCorridor(nodeIndex);
+		
+		//the search starts from the end points of the corridor of the node, or from the node itself if it is an end point
+		if(corridor>=0)
+		{
+			pillSearchCorridors[corridor]=pillSearchStamp;
+			found=_searchCorridor(nodeIndex,corridor,found,pillNodeIndices,distances);
+			
+			int offset=corridors.getOffset(nodeIndex);
+			size=_pushPillSearch(corridors.getStart(corridor),offset+1,size);
+			size=_pushPillSearch(corridors.getEnd(corridor),corridors.getLength(corridor)-offset-1,size);
+		}
+		else
+			size=_pushPillSearch(nodeIndex,0,size);
+		
+		int k=pillNodeIndices.length;
+		
+		while(size>0)
+		{
+			long top=pillSearchHeap[0];
+			size=_popPillSearch(size);
+			
+			int node=(int)top;
+			int distance=(int)(top>>>32);
+			
+			//the pills not found yet are at least as far away as this end point
+			if(found==k && distances[k-1]<distance)
+				break;
+			
+			if(pillSearchSettled[node]==pillSearchStamp)
+				continue;
+			
+			pillSearchSettled[node]=pillSearchStamp;
+			
+			int pillIndex=currentMaze.graph[node].pillIndex;
+			
+			if(pillIndex>=0 && _get(pills,pillIndex))
+				found=_offerPill(node,distance,found,pillNodeIndices,distances);
+			
+			for(int m=0;m<4;m++)
+			{
+				corridor=corridors.getCorridor(node,MOVES[m]);
+				
+				if(corridor<0)
+					continue;
+				
+				if(pillSearchCorridors[corridor]!=pillSearchStamp)
+				{
+					pillSearchCorridors[corridor]=pillSearchStamp;
+					found=_searchCorridor(nodeIndex,corridor,found,pillNodeIndices,distances);
+				}
+				
+				int next=corridors.getOtherEnd(corridor,node);
+				
+				if(pillSearchSettled[next]!=pillSearchStamp)
+					size=_pushPillSearch(next,distance+corridors.getLength(corridor),size);
+			}
+		}
+		
+		return found;
+	}
+	
+	/**
+	 * Prepares the workspace for a new search for the nearest pills: the end points settled and
+	 * the corridors searched are those stamped with the current stamp.
+	 *
+	 * @param corridors the corridors of the current maze
+	 */
+	private void _startPillSearch(CorridorGraph corridors)
+	{
+		int numNodes=currentMaze.graph.length;
+		
+		if(pillSearchSettled==null || pillSearchSettled.length!=numNodes || pillSearchCorridors.length!=corridors.getNumCorridors())
+		{
+			pillSearchSettled=new int[numNodes];
+			pillSearchCorridors=new int[corridors.getNumCorridors()];
+			//each corridor is entered at most once from either end, in addition to the two end points the search starts from
+			pillSearchHeap=new long[2*corridors.getNumCorridors()+2];
+			pillSearchStamp=0;
+		}
+		
+		if(++pillSearchStamp==Integer.MAX_VALUE)
+		{
+			Arrays.fill(pillSearchSettled,0);
+			Arrays.fill(pillSearchCorridors,0);
+			pillSearchStamp=1;
+		}
+	}
+	
+	/**
+	 * Offers the pills still available in the corridor specified, unless it has been cleared.
+	 *
+	 * @param nodeIndex the node the search started from
+	 * @param corridor the corridor
+	 * @param found the number of pills found so far
+	 * @param pillNodeIndices the pills found so far
+	 * @param distances the distances of the pills found so far
+	 * @return the number of pills found
+	 */
+	private int _searchCorridor(int nodeIndex,int corridor,int found,int[] pillNodeIndices,int[] distances)
+	{
+		CorridorGraph corridors=currentMaze.corridors;
+		int remaining=corridorPills[corridor];
+		
+		for(int i=0;remaining>0;i++)
+		{
+			int node=corridors.getNode(corridor,i);
+			int pillIndex=currentMaze.graph[node].pillIndex;
+			
+			if(pillIndex>=0 && _get(pills,pillIndex))
+			{
+				found=_offerPill(node,getShortestPathDistance(nodeIndex,node),found,pillNodeIndices,distances);
+				remaining--;
+			}
+		}
+		
+		return found;
+	}
+	
+	/**
+	 * Inserts the pill into the pills found, ordered by distance, unless k pills that precede it
+	 * have been found already.
+	 *
+	 * @param node the node of the pill
+	 * @param distance the distance of the pill
+	 * @param found the number of pills found so far
+	 * @param pillNodeIndices the pills found so far
+	 * @param distances the distances of the pills found so far
+	 * @return the number of pills found
+	 */
+	private int _offerPill(int node,int distance,int found,int[] pillNodeIndices,int[] distances)
+	{
+		int k=pillNodeIndices.length;
+		
+		if(found==k && !_precedesPill(node,distance,pillNodeIndices[k-1],distances[k-1]))
+			return found;
+		
+		int i=found<k ? found : k-1;
+		
+		while(i>0 && _precedesPill(node,distance,pillNodeIndices[i-1],distances[i-1]))
+		{
+			pillNodeIndices[i]=pillNodeIndices[i-1];
+			distances[i]=distances[i-1];
+			i--;
+		}
+		
+		pillNodeIndices[i]=node;
+		distances[i]=distance;
+		
+		return found<k ? found+1 : k;
+	}
+	
+	/**
+	 * Returns whether the first pill precedes the second one: pills are ordered by their distance,
+	 * then by their pill index, the power pills following the pills.
+	 */
+	private boolean _precedesPill(int node,int distance,int otherNode,int otherDistance)
+	{
+		if(distance!=otherDistance)
+			return distance<otherDistance;
+		
+		return _pillOrder(node)<_pillOrder(otherNode);
+	}
+	
+	private int _pillOrder(int node)
+	{
+		int pillIndex=currentMaze.graph[node].pillIndex;
+		
+		return pillIndex>=0 ? pillIndex : currentMaze.pillIndices.length+currentMaze.graph[node].powerPillIndex;
+	}
+	
+	/**
+	 * Adds an end point to the heap of the search for the nearest pills, ordered by distance.
+	 *
+	 * @param node the end point
+	 * @param distance its distance from the node the search started from
+	 * @param size the size of the heap
+	 * @return the new size of the heap
+	 */
+	private int _pushPillSearch(int node,int distance,int size)
+	{
+		long entry=((long)distance<<32)|node;
+		int k=size;
+		
+		while(k>0)
+		{
+			int parent=(k-1)>>>1;
+			
+			if(pillSearchHeap[parent]<=entry)
+				break;
+			
+			pillSearchHeap[k]=pillSearchHeap[parent];
+			k=parent;
+		}
+		
+		pillSearchHeap[k]=entry;
+		
+		return size+1;
+	}
+	
+	/**
+	 * Removes the nearest end point from the heap of the search for the nearest pills.
+	 *
+	 * @param size the size of the heap
+	 * @return the new size of the heap
+	 */
+	private int _popPillSearch(int size)
+	{
+		long entry=pillSearchHeap[--size];
+		int k=0;
+		
+		while(2*k+1<size)
+		{
+			int child=2*k+1;
+			
+			if(child+1<size && pillSearchHeap[child+1]<pillSearchHeap[child])
+				child++;
+			
+			if(entry<=pillSearchHeap[child])
+				break;
+			
+			pillSearchHeap[k]=pillSearchHeap[child];
+			k=child;
+		}
+		
+		pillSearchHeap[k]=entry;
+		
+		return size;
 	}
 	
 	/**
@@ -1105,7 +2192,7 @@ public final class Game
 	 */
 	public int getGhostLairTime(GHOST ghostType)
 	{
-		return ghosts.get(ghostType).lairTime;
+		return ghostLairTime[ghostType.ordinal()];
 	}
 	
 	/**
@@ -1115,12 +2202,12 @@ public final class Game
 	 */
 	public int[] getActivePillsIndices()
 	{
-		int[] indices=new int[pills.cardinality()];
+		int[] indices=new int[_cardinality(pills)];
 		
 		int index=0;
 		
 		for(int i=0;i<currentMaze.pillIndices.length;i++)
-			if(pills.get(i))
+			if(_get(pills,i))
 				indices[index++]=currentMaze.pillIndices[i];		
 			
 		return indices;
@@ -1133,12 +2220,12 @@ public final class Game
 	 */
 	public int[] getActivePowerPillsIndices()
 	{
-		int[] indices=new int[powerPills.cardinality()];
+		int[] indices=new int[_cardinality(powerPills)];
 		
 		int index=0;
 		
 		for(int i=0;i<currentMaze.powerPillIndices.length;i++)
-			if(powerPills.get(i))
+			if(_get(powerPills,i))
 				indices[index++]=currentMaze.powerPillIndices[i];		
 			
 		return indices;
@@ -1152,9 +2239,11 @@ public final class Game
 	 */
 	public boolean doesGhostRequireAction(GHOST ghostType)
 	{
+		int ghost=ghostType.ordinal();
+		
 		//inlcude neutral here for the unique case where the ghost just left the lair
-		return ((isJunction(ghosts.get(ghostType).currentNodeIndex) || (ghosts.get(ghostType).lastMoveMade==MOVE.NEUTRAL) && ghosts.get(ghostType).currentNodeIndex==currentMaze.initialGhostNodeIndex) 
-				&& (ghosts.get(ghostType).edibleTime==0 || ghosts.get(ghostType).edibleTime%GHOST_SPEED_REDUCTION!=0));
+		return ((isJunction(ghostNodeIndex[ghost]) || (ghostLastMove[ghost]==MOVE.NEUTRAL.ordinal()) && ghostNodeIndex[ghost]==currentMaze.initialGhostNodeIndex) 
+				&& (ghostEdibleTime[ghost]==0 || ghostEdibleTime[ghost]%GHOST_SPEED_REDUCTION!=0));
 	}
 	
 	/**
@@ -1165,7 +2254,7 @@ public final class Game
 	 */
 	public boolean isJunction(int nodeIndex)
 	{
-		return currentMaze.graph[nodeIndex].numNeighbouringNodes>2;
+		return Integer.bitCount(currentMaze.moveMasks[nodeIndex])>2;
 	}
 	
 	/**
@@ -1176,7 +2265,7 @@ public final class Game
 	 */
 	public MOVE[] getPossibleMoves(int nodeIndex)
 	{
-		return currentMaze.graph[nodeIndex].allPossibleMoves.get(MOVE.NEUTRAL);
+		return currentMaze.possibleMoves[nodeIndex*MOVES.length+NEUTRAL];
 	}
 	
 	/**
@@ -1188,7 +2277,7 @@ public final class Game
 	 */
 	public MOVE[] getPossibleMoves(int nodeIndex,MOVE lastModeMade)
 	{
-		return currentMaze.graph[nodeIndex].allPossibleMoves.get(lastModeMade);
+		return currentMaze.possibleMoves[nodeIndex*MOVES.length+lastModeMade.ordinal()];
 	}
 	
 	/**
@@ -1199,7 +2288,7 @@ public final class Game
 	 */
 	public int[] getNeighbouringNodes(int nodeIndex)
 	{
-		return currentMaze.graph[nodeIndex].allNeighbouringNodes.get(MOVE.NEUTRAL);
+		return currentMaze.neighbouringNodes[nodeIndex*MOVES.length+NEUTRAL];
 	}
 	
 	/**
@@ -1212,7 +2301,7 @@ public final class Game
 	 */
 	public int[] getNeighbouringNodes(int nodeIndex,MOVE lastModeMade)
 	{
-		return currentMaze.graph[nodeIndex].allNeighbouringNodes.get(lastModeMade);
+		return currentMaze.neighbouringNodes[nodeIndex*MOVES.length+lastModeMade.ordinal()];
 	}
 	
    /**
@@ -1225,9 +2314,10 @@ public final class Game
     */
     public int getNeighbour(int nodeIndex, MOVE moveToBeMade)
     {
-    	Integer neighbour=currentMaze.graph[nodeIndex].neighbourhood.get(moveToBeMade);
+    	if(moveToBeMade==null || moveToBeMade==MOVE.NEUTRAL)
+    		return -1;
     	
-    	return neighbour==null ? -1 : neighbour;
+    	return currentMaze.neighbours[nodeIndex*4+moveToBeMade.ordinal()];
     }
     	
 	/**
@@ -1240,12 +2330,11 @@ public final class Game
 	 */
 	public MOVE getMoveToMakeToReachDirectNeighbour(int currentNodeIndex,int neighbourNodeIndex)
 	{
-		for(MOVE move : MOVE.values())
+		for(int move=0;move<4;move++)
 		{
-			if(currentMaze.graph[currentNodeIndex].neighbourhood.containsKey(move) 
-					&& currentMaze.graph[currentNodeIndex].neighbourhood.get(move)==neighbourNodeIndex)
+			if(currentMaze.neighbours[currentNodeIndex*4+move]==neighbourNodeIndex && neighbourNodeIndex!=-1)
 			{
-				return move;
+				return MOVES[move];
 			}
 		}
 		
@@ -1265,12 +2354,258 @@ public final class Game
 	 */
 	public int getShortestPathDistance(int fromNodeIndex,int toNodeIndex)
 	{
-		if(fromNodeIndex==toNodeIndex)
-			return 0;		
-		else if(fromNodeIndex<toNodeIndex)
-			return currentMaze.shortestPathDistances[((toNodeIndex*(toNodeIndex+1))/2)+fromNodeIndex];
-		else
-			return currentMaze.shortestPathDistances[((fromNodeIndex*(fromNodeIndex+1))/2)+toNodeIndex];
+		return currentMaze.shortestPathDistances.getDistance(fromNodeIndex,toNodeIndex);
+	}
+	
+	/**
+	 * Returns the PATH distances from a node to each of the target nodes specified. This is more efficient
+	 * than querying the distances one by one, in particular if the distances are stored as a full matrix
+	 * (see DistanceTable).
+	 *
+	 * @param fromNodeIndex the from node index
+	 * @param targetNodeIndices the target node indices
+	 * @param distances the array the distances are written to (at least as long as targetNodeIndices)
+	 */
+	public void getShortestPathDistances(int fromNodeIndex,int[] targetNodeIndices,int[] distances)
+	{
+		currentMaze.shortestPathDistances.getDistances(fromNodeIndex,targetNodeIndices,distances);
+	}
+	
+	/**
+	 * Returns the PATH distance from each node to the nearest ghost that is neither edible nor in the lair,
+	 * indexed by node (Integer.MAX_VALUE if no such ghost can reach the node). The field is computed at most
+	 * once per time step, when first queried, and is shared by all callers: controllers that assess the danger
+	 * of many nodes should look the distances up here rather than query the distance of every ghost. The array
+	 * returned must not be modified.
+	 *
+	 * @return the distances to the nearest non-edible ghost
+	 */
+	public int[] getGhostDistanceField()
+	{
+		_updateGhostFields();
+		
+		return ghostDistanceField;
+	}
+	
+	/**
+	 * Returns, for each node, the ordinal of the ghost that is neither edible nor in the lair and that is
+	 * closest to the node, i.e., the ghost that would arrive there first (ignoring that ghosts may not reverse),
+	 * or -1 if there is none. Ties are resolved in favour of the ghost with the lower ordinal. Like
+	 * getGhostDistanceField(), the field is computed at most once per time step and must not be modified.
+	 *
+	 * @return the GHOST ordinals of the nearest non-edible ghosts
+	 */
+	public int[] getNearestGhostField()
+	{
+		_updateGhostFields();
+		
+		return nearestGhostField;
+	}
+	
+	/**
+	 * Returns the PATH distance from each node to the nearest active pill (not counting power pills), indexed
+	 * by node (Integer.MAX_VALUE if no pill can be reached). The field is only computed again once a pill has
+	 * been eaten. The array returned must not be modified.
+	 *
+	 * @return the distances to the nearest pill
+	 */
+	public int[] getPillDistanceField()
+	{
+		int numNodes=currentMaze.graph.length;
+		
+		if(pillDistanceField!=null && pillDistanceField.length==numNodes && pillFieldMaze==currentMaze && pillFieldHash==pillHash)
+			return pillDistanceField;
+		
+		if(pillDistanceField==null || pillDistanceField.length!=numNodes)
+			pillDistanceField=new int[numNodes];
+		
+		Arrays.fill(pillDistanceField,Integer.MAX_VALUE);
+		
+		int[] queue=_fieldQueue(numNodes);
+		int tail=0;
+		
+		for(int i=0;i<currentMaze.pillIndices.length;i++)
+			if(_get(pills,i))
+			{
+				pillDistanceField[currentMaze.pillIndices[i]]=0;
+				queue[tail++]=currentMaze.pillIndices[i];
+			}
+		
+		_searchField(pillDistanceField,null,queue,tail);
+		
+		pillFieldMaze=currentMaze;
+		pillFieldHash=pillHash;
+		
+		return pillDistanceField;
+	}
+	
+	/**
+	 * Returns the PATH distance from each node to the nearest of the source nodes specified, indexed by node
+	 * (Integer.MAX_VALUE if no source can reach the node). The field is computed by a single breadth-first
+	 * search from all sources and is returned again, without being computed, for as long as the same sources
+	 * are queried in the same maze, so a controller may query it wherever it is needed during a time step.
+	 * The array returned must not be modified and is overwritten by the next query for different sources.
+	 *
+	 * @param sourceNodeIndices the source node indices
+	 * @return the distances to the nearest source
+	 */
+	public int[] getDistanceField(int[] sourceNodeIndices)
+	{
+		return getDistanceField(sourceNodeIndices,sourceNodeIndices.length);
+	}
+	
+	/**
+	 * Same as getDistanceField(int[]) for the first numSources source nodes of the array, so that a controller
+	 * whose number of sources varies may pass the same buffer at every time step without allocating.
+	 *
+	 * @param sourceNodeIndices the source node indices
+	 * @param numSources the number of source nodes (at most the length of the array)
+	 * @return the distances to the nearest source
+	 */
+	public int[] getDistanceField(int[] sourceNodeIndices,int numSources)
+	{
+		int numNodes=currentMaze.graph.length;
+		
+		if(distanceField!=null && distanceField.length==numNodes && distanceFieldMaze==currentMaze && _sameFieldSources(sourceNodeIndices,numSources))
+			return distanceField;
+		
+		if(distanceField==null || distanceField.length!=numNodes)
+			distanceField=new int[numNodes];
+		
+		Arrays.fill(distanceField,Integer.MAX_VALUE);
+		
+		int[] queue=_fieldQueue(numNodes);
+		int tail=0;
+		
+		for(int i=0;i<numSources;i++)
+			if(distanceField[sourceNodeIndices[i]]!=0)
+			{
+				distanceField[sourceNodeIndices[i]]=0;
+				queue[tail++]=sourceNodeIndices[i];
+			}
+		
+		_searchField(distanceField,null,queue,tail);
+		
+		distanceFieldMaze=currentMaze;
+		
+		if(distanceFieldSources==null || distanceFieldSources.length<numSources)
+			distanceFieldSources=new int[Math.max(numSources,NUM_GHOSTS)];
+		
+		System.arraycopy(sourceNodeIndices,0,distanceFieldSources,0,numSources);
+		numDistanceFieldSources=numSources;
+		
+		return distanceField;
+	}
+	
+	//whether the sources specified are those the distance field was computed from
+	private boolean _sameFieldSources(int[] sourceNodeIndices,int numSources)
+	{
+		if(numSources!=numDistanceFieldSources)
+			return false;
+		
+		for(int i=0;i<numSources;i++)
+			if(sourceNodeIndices[i]!=distanceFieldSources[i])
+				return false;
+		
+		return true;
+	}
+	
+	//computes the ghost fields again if a ghost has moved, become edible, left the lair, etc. since they were computed
+	private void _updateGhostFields()
+	{
+		int numNodes=currentMaze.graph.length;
+		
+		if(ghostDistanceField==null || ghostDistanceField.length!=numNodes)
+		{
+			ghostDistanceField=new int[numNodes];
+			nearestGhostField=new int[numNodes];
+			ghostFieldSources=new int[NUM_GHOSTS];
+			ghostFieldMaze=null;
+		}
+		
+		boolean changed=ghostFieldMaze!=currentMaze;
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
+		{
+			int source=ghostLairTime[g]==0 && ghostEdibleTime[g]==0 ? ghostNodeIndex[g] : -1;
+			
+			if(ghostFieldSources[g]!=source)
+			{
+				ghostFieldSources[g]=source;
+				changed=true;
+			}
+		}
+		
+		if(!changed)
+			return;
+		
+		Arrays.fill(ghostDistanceField,Integer.MAX_VALUE);
+		Arrays.fill(nearestGhostField,-1);
+		
+		int[] queue=_fieldQueue(numNodes);
+		int tail=0;
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
+		{
+			int source=ghostFieldSources[g];
+			
+			if(source!=-1 && ghostDistanceField[source]!=0)
+			{
+				ghostDistanceField[source]=0;
+				nearestGhostField[source]=g;
+				queue[tail++]=source;
+			}
+		}
+		
+		_searchField(ghostDistanceField,nearestGhostField,queue,tail);
+		
+		ghostFieldMaze=currentMaze;
+	}
+	
+	/*
+	 * Breadth-first search from the sources in the queue (at distance 0 in the field) that sets the distance of
+	 * every node reached. If owners is not null, each node is assigned the lowest owner among the sources nearest
+	 * to it: a node at distance d is only expanded once all nodes at distance d-1 have been, so its owner may
+	 * still be lowered by any of its neighbours at distance d-1 until then.
+	 */
+	private void _searchField(int[] field,int[] owners,int[] queue,int tail)
+	{
+		int[] neighbours=currentMaze.neighbours;
+		int head=0;
+		
+		while(head<tail)
+		{
+			int node=queue[head++];
+			int distance=field[node]+1;
+			
+			for(int m=0;m<4;m++)
+			{
+				int next=neighbours[node*4+m];
+				
+				if(next==-1)
+					continue;
+				
+				if(field[next]==Integer.MAX_VALUE)
+				{
+					field[next]=distance;
+					
+					if(owners!=null)
+						owners[next]=owners[node];
+					
+					queue[tail++]=next;
+				}
+				else if(owners!=null && field[next]==distance && owners[node]<owners[next])
+					owners[next]=owners[node];
+			}
+		}
+	}
+	
+	private int[] _fieldQueue(int numNodes)
+	{
+		if(fieldQueue==null || fieldQueue.length!=numNodes)
+			fieldQueue=new int[numNodes];
+		
+		return fieldQueue;
 	}
 	
 	/**
@@ -1282,7 +2617,40 @@ public final class Game
 	 */
 	public double getEuclideanDistance(int fromNodeIndex,int toNodeIndex)
 	{
-		return Math.sqrt(Math.pow(currentMaze.graph[fromNodeIndex].x-currentMaze.graph[toNodeIndex].x,2)+Math.pow(currentMaze.graph[fromNodeIndex].y-currentMaze.graph[toNodeIndex].y,2));
+		return Math.sqrt(getSquaredEuclideanDistance(fromNodeIndex,toNodeIndex));
+	}
+	
+	/**
+	 * Returns the squared EUCLEDIAN distance between two nodes in the current maze. As the square root preserves
+	 * the order of the distances, this may be used in place of getEuclideanDistance(-) to compare distances.
+	 *
+	 * @param fromNodeIndex the from node index
+	 * @param toNodeIndex the to node index
+	 * @return the squared euclidean distance
+	 */
+	public int getSquaredEuclideanDistance(int fromNodeIndex,int toNodeIndex)
+	{
+		if(currentMaze.squaredEuclideanDistances!=null)
+			return currentMaze.squaredEuclideanDistances[fromNodeIndex*currentMaze.x.length+toNodeIndex];
+		
+		int dx=currentMaze.x[fromNodeIndex]-currentMaze.x[toNodeIndex];
+		int dy=currentMaze.y[fromNodeIndex]-currentMaze.y[toNodeIndex];
+		
+		return dx*dx+dy*dy;
+	}
+	
+	/**
+	 * Returns whether the first node is closer to the target node than the second one in terms of the EUCLEDIAN
+	 * distance (the square roots need not be computed to tell).
+	 *
+	 * @param firstNodeIndex the first node index
+	 * @param secondNodeIndex the second node index
+	 * @param toNodeIndex the target node index
+	 * @return true if the first node is strictly closer to the target
+	 */
+	public boolean isEuclideanCloser(int firstNodeIndex,int secondNodeIndex,int toNodeIndex)
+	{
+		return getSquaredEuclideanDistance(firstNodeIndex,toNodeIndex)<getSquaredEuclideanDistance(secondNodeIndex,toNodeIndex);
 	}
 	
 	/**
@@ -1294,7 +2662,10 @@ public final class Game
 	 */
 	public int getManhattanDistance(int fromNodeIndex,int toNodeIndex)
 	{
-		return (int)(Math.abs(currentMaze.graph[fromNodeIndex].x-currentMaze.graph[toNodeIndex].x)+Math.abs(currentMaze.graph[fromNodeIndex].y-currentMaze.graph[toNodeIndex].y));
+		if(currentMaze.manhattanDistances!=null)
+			return currentMaze.manhattanDistances[fromNodeIndex*currentMaze.x.length+toNodeIndex];
+		
+		return Math.abs(currentMaze.x[fromNodeIndex]-currentMaze.x[toNodeIndex])+Math.abs(currentMaze.y[fromNodeIndex]-currentMaze.y[toNodeIndex]);
 	}
 	
 	/**
@@ -1338,6 +2709,27 @@ public final class Game
 		return -1;
 	}
 	
+	/**
+	 * Returns a distance that orders the nodes like getDistance(-) does, using the squared Euclidean distance in
+	 * place of the Euclidean one to avoid the square roots when only the order matters.
+	 *
+	 * @param fromNodeIndex the from node index
+	 * @param toNodeIndex the to node index
+	 * @param distanceMeasure the distance measure
+	 * @return the distance to compare
+	 */
+	private int _rankDistance(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
+	{
+		switch(distanceMeasure)
+		{
+			case PATH: return getShortestPathDistance(fromNodeIndex,toNodeIndex);
+			case EUCLID: return getSquaredEuclideanDistance(fromNodeIndex,toNodeIndex);
+			case MANHATTAN: return getManhattanDistance(fromNodeIndex,toNodeIndex);
+		}
+		
+		return -1;
+	}
+	
 	/**
 	 * Gets the closest node index from node index.
 	 *
@@ -1348,14 +2740,14 @@ public final class Game
 	 */
 	public int getClosestNodeIndexFromNodeIndex(int fromNodeIndex,int[] targetNodeIndices,DM distanceMeasure)
 	{
-		double minDistance=Integer.MAX_VALUE;
+		int minDistance=Integer.MAX_VALUE;
 		int target=-1;
 		
 		for(int i=0;i<targetNodeIndices.length;i++)
 		{				
-			double distance=0;
+			int distance=0;
 			
-			distance=getDistance(targetNodeIndices[i],fromNodeIndex,distanceMeasure);
+			distance=_rankDistance(targetNodeIndices[i],fromNodeIndex,distanceMeasure);
 					
 			if(distance<minDistance)
 			{
@@ -1377,14 +2769,14 @@ public final class Game
 	 */
 	public int getFarthestNodeIndexFromNodeIndex(int fromNodeIndex,int[] targetNodeIndices,DM distanceMeasure)
 	{
-		double maxDistance=Integer.MIN_VALUE;
+		int maxDistance=Integer.MIN_VALUE;
 		int target=-1;
 		
 		for(int i=0;i<targetNodeIndices.length;i++)
 		{				
-			double distance=0;
+			int distance=0;
 			
-			distance=getDistance(targetNodeIndices[i],fromNodeIndex,distanceMeasure);
+			distance=_rankDistance(targetNodeIndices[i],fromNodeIndex,distanceMeasure);
 					
 			if(distance>maxDistance)
 			{
@@ -1406,18 +2798,27 @@ public final class Game
 	 */
 	public MOVE getNextMoveTowardsTarget(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH)
+			return _nextMove(fromNodeIndex,toNodeIndex,NEXT_MOVES_TOWARDS,-1);
+		
 		MOVE move=null;
 
-		double minDistance=Integer.MAX_VALUE;
+		int minDistance=Integer.MAX_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].neighbourhood.entrySet())
+		int moveMask=currentMaze.moveMasks[fromNodeIndex];
+
+		for(int m=0;m<4;m++)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			if((moveMask&(1<<m))==0)
+				continue;
+			
+			int neighbour=currentMaze.neighbours[fromNodeIndex*4+m];
+			int distance=_rankDistance(neighbour,toNodeIndex,distanceMeasure);
 								
 			if(distance<minDistance)
 			{
 				minDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
@@ -1434,24 +2835,78 @@ public final class Game
 	 */
 	public MOVE getNextMoveAwayFromTarget(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH)
+			return _nextMove(fromNodeIndex,toNodeIndex,NEXT_MOVES_AWAY,-1);
+		
 		MOVE move=null;
 
-		double maxDistance=Integer.MIN_VALUE;
+		int maxDistance=Integer.MIN_VALUE;
+
+		int moveMask=currentMaze.moveMasks[fromNodeIndex];
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].neighbourhood.entrySet())
+		for(int m=0;m<4;m++)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			if((moveMask&(1<<m))==0)
+				continue;
+			
+			int neighbour=currentMaze.neighbours[fromNodeIndex*4+m];
+			int distance=_rankDistance(neighbour,toNodeIndex,distanceMeasure);
 								
 			if(distance>maxDistance)
 			{
 				maxDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
 		return move;
 	}
 	
+	/**
+	 * Looks up the next move along the shortest path in the table of the current maze (see Maze.nextMoves).
+	 * Mazes too large for the table rank the moves by the distances of the neighbours instead, breaking
+	 * ties in favour of the lower ordinal as the table does.
+	 *
+	 * @param fromNodeIndex The node index from which to move (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param shift NEXT_MOVES_TOWARDS or NEXT_MOVES_AWAY
+	 * @param excluded The ordinal of the move that is not allowed (-1 if none)
+	 * @return The next move (null if there is none)
+	 */
+	private MOVE _nextMove(int fromNodeIndex,int toNodeIndex,int shift,int excluded)
+	{
+		if(currentMaze.nextMoves==null)
+		{
+			int moveMask=currentMaze.moveMasks[fromNodeIndex]&~(excluded<0 ? 0 : 1<<excluded);
+			int best=shift==NEXT_MOVES_TOWARDS ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+			MOVE move=null;
+			
+			for(int m=0;m<4;m++)
+			{
+				if((moveMask&(1<<m))==0)
+					continue;
+				
+				int distance=getShortestPathDistance(currentMaze.neighbours[fromNodeIndex*4+m],toNodeIndex);
+				
+				if(shift==NEXT_MOVES_TOWARDS ? distance<best : distance>best)
+				{
+					best=distance;
+					move=MOVES[m];
+				}
+			}
+			
+			return move;
+		}
+		
+		int moves=currentMaze.nextMoves[fromNodeIndex*currentMaze.graph.length+toNodeIndex]>>shift;
+		int move=moves&7;
+		
+		if(move==excluded)
+			move=(moves>>3)&7;
+		
+		return move==Maze.NO_MOVE ? null : MOVES[move];
+	}
+	
 	/**
 	 * Gets the approximate next move towards target not considering directions opposing the last move made.
 	 *
@@ -1463,18 +2918,27 @@ public final class Game
 	 */
 	public MOVE getApproximateNextMoveTowardsTarget(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade, DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH)
+			return _nextMove(fromNodeIndex,toNodeIndex,NEXT_MOVES_TOWARDS,OPPOSITES[lastMoveMade.ordinal()]);
+		
 		MOVE move=null;
 
-		double minDistance=Integer.MAX_VALUE;
+		int minDistance=Integer.MAX_VALUE;
+
+		int moveMask=currentMaze.moveMasks[fromNodeIndex]&~(1<<OPPOSITES[lastMoveMade.ordinal()]);
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(lastMoveMade).entrySet())
+		for(int m=0;m<4;m++)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			if((moveMask&(1<<m))==0)
+				continue;
+			
+			int neighbour=currentMaze.neighbours[fromNodeIndex*4+m];
+			int distance=_rankDistance(neighbour,toNodeIndex,distanceMeasure);
 								
 			if(distance<minDistance)
 			{
 				minDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
@@ -1492,18 +2956,27 @@ public final class Game
 	 */
 	public MOVE getApproximateNextMoveAwayFromTarget(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade, DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH)
+			return _nextMove(fromNodeIndex,toNodeIndex,NEXT_MOVES_AWAY,OPPOSITES[lastMoveMade.ordinal()]);
+		
 		MOVE move=null;
 
-		double maxDistance=Integer.MIN_VALUE;
+		int maxDistance=Integer.MIN_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(lastMoveMade).entrySet())
+		int moveMask=currentMaze.moveMasks[fromNodeIndex]&~(1<<OPPOSITES[lastMoveMade.ordinal()]);
+
+		for(int m=0;m<4;m++)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			if((moveMask&(1<<m))==0)
+				continue;
+			
+			int neighbour=currentMaze.neighbours[fromNodeIndex*4+m];
+			int distance=_rankDistance(neighbour,toNodeIndex,distanceMeasure);
 								
 			if(distance>maxDistance)
 			{
 				maxDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
@@ -1523,16 +2996,22 @@ public final class Game
 	{
 		MOVE move=null;
 
-		double minDistance=Integer.MAX_VALUE;
+		int minDistance=Integer.MAX_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(lastMoveMade).entrySet())
+		int moveMask=currentMaze.moveMasks[fromNodeIndex]&~(1<<OPPOSITES[lastMoveMade.ordinal()]);
+
+		for(int m=0;m<4;m++)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,lastMoveMade,distanceMeasure);
+			if((moveMask&(1<<m))==0)
+				continue;
+			
+			int neighbour=currentMaze.neighbours[fromNodeIndex*4+m];
+			int distance=distanceMeasure==DM.PATH ? getApproximateShortestPathDistance(neighbour,toNodeIndex,lastMoveMade) : _rankDistance(neighbour,toNodeIndex,distanceMeasure);
 								
 			if(distance<minDistance)
 			{
 				minDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
@@ -1552,16 +3031,22 @@ public final class Game
 	{
 		MOVE move=null;
 
-		double maxDistance=Integer.MIN_VALUE;
+		int maxDistance=Integer.MIN_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(lastMoveMade).entrySet())
+		int moveMask=currentMaze.moveMasks[fromNodeIndex]&~(1<<OPPOSITES[lastMoveMade.ordinal()]);
+
+		for(int m=0;m<4;m++)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,lastMoveMade,distanceMeasure);
+			if((moveMask&(1<<m))==0)
+				continue;
+			
+			int neighbour=currentMaze.neighbours[fromNodeIndex*4+m];
+			int distance=distanceMeasure==DM.PATH ? getApproximateShortestPathDistance(neighbour,toNodeIndex,lastMoveMade) : _rankDistance(neighbour,toNodeIndex,distanceMeasure);
 								
 			if(distance>maxDistance)
 			{
 				maxDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
@@ -1593,7 +3078,7 @@ public final class Game
 	 */
 	public int[] getShortestPath(int fromNodeIndex,int toNodeIndex)
 	{
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex,toNodeIndex);
+		return _sharedPath(fromNodeIndex,toNodeIndex,SharedPathCache.NO_LAST_MOVE).clone();
 	}
 	
 	/**
@@ -1626,10 +3111,232 @@ public final class Game
 	 */
 	public int[] getShortestPath(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade)
 	{
-		if(currentMaze.graph[fromNodeIndex].neighbourhood.size()==0)//lair
+		if(currentMaze.moveMasks[fromNodeIndex]==0)//lair
 			return new int[0];
 
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+		return _sharedPath(fromNodeIndex,toNodeIndex,lastMoveMade.ordinal()).clone();
+	}
+	
+	/**
+	 * Returns the shortest path from node A to node B as a read-only view of the path shared by all games
+	 * played in the maze (see SharedPathCache), so unlike getShortestPath(-) the path is not copied.
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @return The shortest path as a read-only buffer
+	 */
+	public IntBuffer getSharedShortestPath(int fromNodeIndex,int toNodeIndex)
+	{
+		return IntBuffer.wrap(_sharedPath(fromNodeIndex,toNodeIndex,SharedPathCache.NO_LAST_MOVE)).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Returns the shortest path taking into account the last move made (i.e., no reversals) as a read-only
+	 * view of the path shared by all games played in the maze (see SharedPathCache).
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param lastMoveMade The last move made
+	 * @return The shortest path as a read-only buffer
+	 */
+	public IntBuffer getSharedShortestPath(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade)
+	{
+		if(currentMaze.moveMasks[fromNodeIndex]==0)//lair
+			return IntBuffer.allocate(0).asReadOnlyBuffer();
+		
+		return IntBuffer.wrap(_sharedPath(fromNodeIndex,toNodeIndex,lastMoveMade.ordinal())).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Sets the cursor supplied to the shortest path from node A to node B as shared by all games played in
+	 * the maze (see SharedPathCache): on a hit, neither the path is searched nor any object created.
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param path The cursor to set to the path (re-usable)
+	 * @return The length of the path
+	 */
+	public int getSharedShortestPath(int fromNodeIndex,int toNodeIndex,PathCursor path)
+	{
+		path.view(_sharedPath(fromNodeIndex,toNodeIndex,SharedPathCache.NO_LAST_MOVE));
+		
+		return path.length();
+	}
+	
+	/**
+	 * Sets the cursor supplied to the shortest path taking into account the last move made (i.e., no
+	 * reversals) as shared by all games played in the maze (see SharedPathCache).
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param lastMoveMade The last move made
+	 * @param path The cursor to set to the path (re-usable)
+	 * @return The length of the path
+	 */
+	public int getSharedShortestPath(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade,PathCursor path)
+	{
+		if(currentMaze.moveMasks[fromNodeIndex]==0)//lair
+		{
+			path.clear();
+			return 0;
+		}
+		
+		path.view(_sharedPath(fromNodeIndex,toNodeIndex,lastMoveMade.ordinal()));
+		
+		return path.length();
+	}
+	
+	/**
+	 * Returns the path from the shared cache of the current maze (see SharedPathCache), finding and caching
+	 * it on a miss. The array is shared by all games and must not be modified.
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param lastMove The ordinal of the last move made (SharedPathCache.NO_LAST_MOVE if it may be reversed)
+	 * @return The shared path
+	 */
+	private int[] _sharedPath(int fromNodeIndex,int toNodeIndex,int lastMove)
+	{
+		PathsCache paths=MazeRegistry.getPathsCache(mazeIndex);
+		SharedPathCache sharedPaths=paths.getSharedPaths();
+		int[] path=sharedPaths.get(fromNodeIndex,toNodeIndex,lastMove);
+		
+		if(path==null)
+		{
+			path=lastMove==SharedPathCache.NO_LAST_MOVE ? paths.getPathFromA2B(fromNodeIndex,toNodeIndex) 
+					: paths.getPathFromA2B(fromNodeIndex,toNodeIndex,MOVES[lastMove]);
+			sharedPaths.put(fromNodeIndex,toNodeIndex,lastMove,path);
+		}
+		
+		return path;
+	}
+	
+	/**
+	 * Returns the cache of the paths shared by all games played in the current maze, e.g., to read its
+	 * hit and miss counters.
+	 *
+	 * @return The shared path cache
+	 */
+	public SharedPathCache getSharedPathCache()
+	{
+		return MazeRegistry.getPathsCache(mazeIndex).getSharedPaths();
+	}
+	
+	/**
+	 * Sets the cursor supplied to the shortest path from node A to node B. The nodes of the path can then
+	 * be iterated over without copying the path into an array.
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param path The cursor to set to the path (re-usable)
+	 * @return The length of the path
+	 */
+	public int getShortestPath(int fromNodeIndex,int toNodeIndex,PathCursor path)
+	{
+		return MazeRegistry.getPathsCache(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex,path);
+	}
+	
+	/**
+	 * Writes the shortest path from node A to node B into the array supplied, which must be large enough
+	 * (the number of nodes in the maze always suffices).
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param path The array to write the path into
+	 * @return The length of the path
+	 */
+	public int getShortestPath(int fromNodeIndex,int toNodeIndex,int[] path)
+	{
+		PathCursor cursor=_pathCursor();
+		getShortestPath(fromNodeIndex,toNodeIndex,cursor);
+		
+		return cursor.copyTo(path);
+	}
+	
+	/**
+	 * Writes the shortest path from node A to node B into the buffer supplied, starting at its position.
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param path The buffer to write the path into
+	 * @return The length of the path
+	 */
+	public int getShortestPath(int fromNodeIndex,int toNodeIndex,IntBuffer path)
+	{
+		PathCursor cursor=_pathCursor();
+		getShortestPath(fromNodeIndex,toNodeIndex,cursor);
+		
+		return cursor.copyTo(path);
+	}
+	
+	/**
+	 * Sets the cursor supplied to the shortest path taking into account the last move made (i.e., no
+	 * reversals). The nodes of the path can then be iterated over without copying the path into an array.
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param lastMoveMade The last move made
+	 * @param path The cursor to set to the path (re-usable)
+	 * @return The length of the path
+	 */
+	public int getShortestPath(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade,PathCursor path)
+	{
+		if(currentMaze.moveMasks[fromNodeIndex]==0)//lair
+		{
+			path.clear();
+			return 0;
+		}
+		
+		return MazeRegistry.getPathsCache(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade,path);
+	}
+	
+	/**
+	 * Writes the shortest path taking into account the last move made (i.e., no reversals) into the array
+	 * supplied, which must be large enough (the number of nodes in the maze always suffices).
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param lastMoveMade The last move made
+	 * @param path The array to write the path into
+	 * @return The length of the path
+	 */
+	public int getShortestPath(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade,int[] path)
+	{
+		PathCursor cursor=_pathCursor();
+		getShortestPath(fromNodeIndex,toNodeIndex,lastMoveMade,cursor);
+		
+		return cursor.copyTo(path);
+	}
+	
+	/**
+	 * Writes the shortest path taking into account the last move made (i.e., no reversals) into the buffer
+	 * supplied, starting at its position.
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param lastMoveMade The last move made
+	 * @param path The buffer to write the path into
+	 * @return The length of the path
+	 */
+	public int getShortestPath(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade,IntBuffer path)
+	{
+		PathCursor cursor=_pathCursor();
+		getShortestPath(fromNodeIndex,toNodeIndex,lastMoveMade,cursor);
+		
+		return cursor.copyTo(path);
+	}
+	
+	/**
+	 * Returns the cursor used by the path queries that write into arrays or buffers.
+	 *
+	 * @return The cursor
+	 */
+	private PathCursor _pathCursor()
+	{
+		if(pathCursor==null)
+			pathCursor=new PathCursor();
+		
+		return pathCursor;
 	}
 	
 	/**
@@ -1650,19 +3357,38 @@ public final class Game
 	}
 	
 	/**
-	 * Similar to getShortestPath but returns the distance of the path only. It is slightly
-	 * more efficient.
+	 * Similar to getShortestPath but returns the distance of the path only. The distances from a node
+	 * given the last move made are computed once and then looked up, without creating the path.
 	 *  
 	 * @param fromNodeIndex The node index from where to start (i.e., current position)
 	 * @param toNodeIndex The target node index
 	 * @param lastMoveMade The last move made
-	 * @return the exact distance of the path
+	 * @return the exact distance of the path (-1 if the target cannot be reached without reversing)
 	 */
 	public int getShortestPathDistance(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade)
 	{
-		if(currentMaze.graph[fromNodeIndex].neighbourhood.size()==0)//lair
+		if(currentMaze.moveMasks[fromNodeIndex]==0)//lair
 			return 0;
 
-		return caches[mazeIndex].getPathDistanceFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+		return MazeRegistry.getPathsCache(mazeIndex).getPathDistanceFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+	}
+	
+	/*
+	 * The changes made to the game state by a single call to makeMove(-). The values of all variables are
+	 * recorded before the move is made; the pills are recorded as the indices of the pill and power pill eaten,
+	 * unless the level changed, in which case the delta holds on to the pills of the previous level.
+	 */
+	private static final class GameDelta
+	{
+		int mazeIndex, levelCount, currentLevelTime, totalTime, score, ghostEatMultiplier, timeOfLastGlobalReversal, ghostsEaten;
+		Maze maze;
+		boolean gameOver, pacmanWasEaten, pillWasEaten, powerPillWasEaten;
+		int pacmanNodeIndex, pacmanLastMove, pacmanLivesRemaining;
+		boolean pacmanReceivedExtraLife;
+		long hash, pillHash, rngState;
+		final int[] ghostNodeIndex=new int[NUM_GHOSTS], ghostEdibleTime=new int[NUM_GHOSTS], ghostLairTime=new int[NUM_GHOSTS], ghostLastMove=new int[NUM_GHOSTS];
+		int pillEaten, powerPillEaten;
+		boolean levelChanged;
+		long[] pills, powerPills;
 	}
-}
\ No newline at end of file
+}
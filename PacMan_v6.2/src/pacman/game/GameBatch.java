@@ -0,0 +1,207 @@
+package pacman.game;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import pacman.game.Constants.MOVE;
+import pacman.game.internal.SplitMix64;
+
+import static pacman.game.Constants.*;
+
+/**
+ * A batch of independent games that are advanced in lockstep with a single call, for instance for
+ * self-play or the tuning of parameters. The moves are supplied as arrays: one move for Ms Pac-Man
+ * per game and NUM_GHOSTS moves per game for the ghosts (game i's ghosts at i*NUM_GHOSTS onwards,
+ * in the order of the GHOST ordinals). The outcome of each game is returned as an int that packs the
+ * points scored during the time step (the reward) and whether the game is over (done); use getReward()
+ * and isDone() to unpack it. Games that are over are no longer advanced until they are reset.
+ *
+ * In parallel mode the batch is split across all cores. Since each game has its own pseudo-random
+ * number generator, the results are identical to those obtained in sequential mode.
+ */
+public final class GameBatch
+{
+	//the minimum number of games advanced by a single task in parallel mode
+	static final int GAMES_PER_TASK=64;
+
+	private static ForkJoinPool pool;
+
+	private final Game[] games;
+	private final int[] results;
+	private final boolean parallel;
+	private long seed;
+
+	/**
+	 * Creates a batch of new games. The seed of each game is derived from the seed supplied so that
+	 * the batch may be replicated exactly.
+	 *
+	 * @param size The number of games
+	 * @param seed The seed from which the seeds of the games are derived
+	 * @param parallel Whether to advance the games on all cores
+	 */
+	public GameBatch(int size,long seed,boolean parallel)
+	{
+		this.games=new Game[size];
+		this.results=new int[size];
+		this.parallel=parallel;
+		this.seed=seed;
+
+		for(int i=0;i<size;i++)
+			reset(i);
+	}
+
+	/**
+	 * Returns the number of games in the batch.
+	 *
+	 * @return The number of games
+	 */
+	public int size()
+	{
+		return games.length;
+	}
+
+	/**
+	 * Returns the game with the index specified. The game may be queried by a controller but should
+	 * only be advanced by the batch.
+	 *
+	 * @param index The index of the game
+	 * @return The game
+	 */
+	public Game getGame(int index)
+	{
+		return games[index];
+	}
+
+	/**
+	 * Replaces the game with the index specified by a new game whose seed is derived from the seed of
+	 * the batch.
+	 *
+	 * @param index The index of the game
+	 */
+	public void reset(int index)
+	{
+		seed=SplitMix64.nextState(seed);
+		reset(index,SplitMix64.split(seed));
+	}
+
+	/**
+	 * Replaces the game with the index specified by a new game.
+	 *
+	 * @param index The index of the game
+	 * @param seed The seed of the new game
+	 */
+	public void reset(int index,long seed)
+	{
+		games[index]=new Game(seed);
+		results[index]=0;
+	}
+
+	/**
+	 * Advances all games that are not over by one time step. The array returned holds the outcome of
+	 * each game and is re-used by subsequent calls.
+	 *
+	 * @param pacManMoves The moves of Ms Pac-Man, one per game
+	 * @param ghostMoves The moves of the ghosts, NUM_GHOSTS per game, or null for the ghosts to keep their last moves
+	 * @return The outcomes of the games (see getReward() and isDone())
+	 */
+	public int[] advance(MOVE[] pacManMoves,MOVE[] ghostMoves)
+	{
+		if(pacManMoves.length<games.length || (ghostMoves!=null && ghostMoves.length<games.length*NUM_GHOSTS))
+			throw new IllegalArgumentException("Not enough moves for a batch of "+games.length+" games");
+
+		if(parallel && games.length>GAMES_PER_TASK)
+			getPool().invoke(new BatchTask(this,pacManMoves,ghostMoves,0,games.length));
+		else
+			advance(pacManMoves,ghostMoves,0,games.length);
+
+		return results;
+	}
+
+	/**
+	 * Advances the games from index from (inclusive) to index to (exclusive).
+	 */
+	void advance(MOVE[] pacManMoves,MOVE[] ghostMoves,int from,int to)
+	{
+		for(int i=from;i<to;i++)
+		{
+			Game game=games[i];
+
+			if(game.gameOver())
+			{
+				results[i]=1;
+				continue;
+			}
+
+			int score=game.getScore();
+
+			game.advanceGame(pacManMoves[i],ghostMoves,i*NUM_GHOSTS);
+
+			results[i]=((game.getScore()-score)<<1)|(game.gameOver() ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Returns the points scored during the last time step, given an outcome returned by advance().
+	 *
+	 * @param result The outcome of a game
+	 * @return The reward
+	 */
+	public static int getReward(int result)
+	{
+		return result>>1;
+	}
+
+	/**
+	 * Returns whether the game is over, given an outcome returned by advance().
+	 *
+	 * @param result The outcome of a game
+	 * @return Whether the game is over
+	 */
+	public static boolean isDone(int result)
+	{
+		return (result&1)!=0;
+	}
+
+	/**
+	 * Returns the pool shared by all batches in parallel mode (its threads are daemons).
+	 */
+	private static synchronized ForkJoinPool getPool()
+	{
+		if(pool==null)
+			pool=new ForkJoinPool();
+
+		return pool;
+	}
+}
+
+/*
+ * Advances a range of the games of a batch, splitting the range in halves until it holds no more than
+ * GAMES_PER_TASK games.
+ */
+final class BatchTask extends RecursiveAction
+{
+	private static final long serialVersionUID=1L;
+
+	private final GameBatch batch;
+	private final MOVE[] pacManMoves,ghostMoves;
+	private final int from,to;
+
+	BatchTask(GameBatch batch,MOVE[] pacManMoves,MOVE[] ghostMoves,int from,int to)
+	{
+		this.batch=batch;
+		this.pacManMoves=pacManMoves;
+		this.ghostMoves=ghostMoves;
+		this.from=from;
+		this.to=to;
+	}
+
+	protected void compute()
+	{
+		if(to-from<=GameBatch.GAMES_PER_TASK)
+			batch.advance(pacManMoves,ghostMoves,from,to);
+		else
+		{
+			int middle=(from+to)>>>1;
+			invokeAll(new BatchTask(batch,pacManMoves,ghostMoves,from,middle),new BatchTask(batch,pacManMoves,ghostMoves,middle,to));
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package pacman.game;
+
+import java.util.ArrayList;
+
+/**
+ * A per-thread pool of Game instances for code that needs many short-lived copies of a game,
+ * such as tree searches. A game is borrowed using acquire(), which returns an exact copy of the
+ * game supplied (see Game.copyInto()), and should be handed back using release() once it is no
+ * longer needed. Each thread has its own pool, so no synchronisation takes place and games must
+ * be released by the thread that acquired them.
+ */
+public final class GamePool
+{
+	private static final int MAX_POOLED=1024;
+
+	private static final ThreadLocal<ArrayList<Game>> pools=new ThreadLocal<ArrayList<Game>>()
+	{
+		protected ArrayList<Game> initialValue()
+		{
+			return new ArrayList<Game>();
+		}
+	};
+
+	private GamePool(){}
+
+	/**
+	 * Returns a copy of the game supplied, re-using a previously released game if one is available.
+	 *
+	 * @param source The game to be copied
+	 * @return A copy of the game
+	 */
+	public static Game acquire(Game source)
+	{
+		ArrayList<Game> pool=pools.get();
+
+		if(pool.isEmpty())
+			return source.copy();
+
+		Game game=pool.remove(pool.size()-1);
+		source.copyInto(game);
+
+		return game;
+	}
+
+	/**
+	 * Returns a game to the pool of the calling thread. The game must not be used afterwards.
+	 *
+	 * @param game The game to be released
+	 */
+	public static void release(Game game)
+	{
+		ArrayList<Game> pool=pools.get();
+
+		if(pool.size()<MAX_POOLED)
+			pool.add(game);
+	}
+}
@@ -1,195 +1,307 @@
 package pacman.game.internal;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.PriorityQueue;
 
 import pacman.game.Game;
 import pacman.game.Constants.MOVE;
 
 /*
- * This class is used to compute the shortest path for the ghosts: as these may not reverse, one cannot use 
+ * This class is used to compute the shortest path for the ghosts: as these may not reverse, one cannot use
  * a simple look-up table. Instead, we use the pre-computed shortest path distances as an admissable
  * heuristic. Although AStar needs to be run every time a path is to be found, it is very quick and does
  * not expand too many nodes beyond those on the optimal path.
+ *
+ * The graph is stored in flat arrays and the state of a search (the costs, parents and moves by which the nodes
+ * were reached, and the open and closed sets) is kept in a workspace owned by the thread carrying out the search,
+ * so any number of threads may search the same maze concurrently. The open set is an indexed binary heap that
+ * orders the nodes exactly as java.util.PriorityQueue would, so the paths are identical to those found before.
+ * Instead of clearing the state after each search, the nodes are stamped with the generation of the search that
+ * last reached them.
  */
 public class AStar
 {
-	private N[] graph;
-	
+	private static final int[] OPPOSITES=new int[MOVE.values().length];
+
+	static
+	{
+		MOVE[] moves=MOVE.values();
+
+		for(int i=0;i<moves.length;i++)
+			OPPOSITES[i]=moves[i].opposite().ordinal();
+	}
+
+	//the edges of node i are adjStart[i] to adjStart[i+1]-1, leading to adjNodes[e] using the move with ordinal adjMoves[e]
+	private int[] adjStart,adjNodes,adjMoves;
+
+	private final ThreadLocal<Workspace> workspaces=new ThreadLocal<Workspace>()
+	{
+		protected Workspace initialValue()
+		{
+			return new Workspace(adjStart.length-1);
+		}
+	};
+
 	public void createGraph(Node[] nodes)
 	{
-		graph=new N[nodes.length];
-		
-		//create graph
+		MOVE[] moves=MOVE.values();
+
+		adjStart=new int[nodes.length+1];
+
 		for(int i=0;i<nodes.length;i++)
-			graph[i]=new N(nodes[i].nodeIndex);
-		
+			adjStart[i+1]=adjStart[i]+nodes[i].neighbourhood.size();
+
+		adjNodes=new int[adjStart[nodes.length]];
+		adjMoves=new int[adjStart[nodes.length]];
+
 		//add neighbours
 		for(int i=0;i<nodes.length;i++)
-		{	
+		{
 			EnumMap<MOVE,Integer> neighbours=nodes[i].neighbourhood;
-			MOVE[] moves=MOVE.values();
-			
+			int edge=adjStart[i];
+
 			for(int j=0;j<moves.length;j++)
 				if(neighbours.containsKey(moves[j]))
-					graph[i].adj.add(new E(graph[neighbours.get(moves[j])],moves[j],1));	
+				{
+					adjNodes[edge]=neighbours.get(moves[j]);
+					adjMoves[edge++]=j;
+				}
 		}
 	}
-	
-	public synchronized int[] computePathsAStar(int s, int t, MOVE lastMoveMade, Game game)
-    {	
-		N start=graph[s];
-		N target=graph[t];
-		
-        PriorityQueue<N> open = new PriorityQueue<N>();
-        ArrayList<N> closed = new ArrayList<N>();
-
-        start.g = 0;
-        start.h = game.getShortestPathDistance(start.index, target.index);
-
-        start.reached=lastMoveMade;
-        
-        open.add(start);
-
-        while(!open.isEmpty())
+
+	public int[] computePathsAStar(int s, int t, MOVE lastMoveMade, Game game)
+    {
+		return computePathsAStar(s, t, lastMoveMade, game.getCurrentMaze().shortestPathDistances);
+    }
+
+	//uses the shortest path distances supplied as the heuristic, which does not require a game (e.g., while the maze is loaded)
+	public int[] computePathsAStar(int s, int t, MOVE lastMoveMade, DistanceTable distances)
+    {
+		Workspace ws=workspaces.get();
+		ws.startSearch();
+
+		ws.touch(s);
+        ws.g[s] = 0;
+        ws.h[s] = distances.getDistance(s, t);
+        ws.reached[s] = lastMoveMade.ordinal();
+
+        ws.add(s);
+
+        while(ws.size > 0)
         {
-            N currentNode = open.poll();
-            closed.add(currentNode);
-            
-            if (currentNode.isEqual(target))
+            int currentNode = ws.poll();
+            ws.status[currentNode] = Workspace.CLOSED;
+
+            if (currentNode == t)
                 break;
 
-            for(E next : currentNode.adj)
+            int opposite = OPPOSITES[ws.reached[currentNode]];
+
+            for(int e = adjStart[currentNode]; e < adjStart[currentNode+1]; e++)
             {
-            	if(next.move!=currentNode.reached.opposite())
+            	if(adjMoves[e] != opposite)
             	{
-	                double currentDistance = next.cost;
-	
-	                if (!open.contains(next.node) && !closed.contains(next.node))
+            		int next = adjNodes[e];
+            		int currentDistance = 1 + ws.g[currentNode];
+
+            		ws.touch(next);
+
+	                if (ws.status[next] == Workspace.NONE)
 	                {
-	                    next.node.g = currentDistance + currentNode.g;
-	                    next.node.h = game.getShortestPathDistance(next.node.index, target.index);
-	                    next.node.parent = currentNode;
-	                    
-	                    next.node.reached=next.move;
-	
-	                    open.add(next.node);
+	                    ws.g[next] = currentDistance;
+	                    ws.h[next] = distances.getDistance(next, t);
+	                    ws.parent[next] = currentNode;
+	                    ws.reached[next] = adjMoves[e];
+
+	                    ws.add(next);
 	                }
-	                else if (currentDistance + currentNode.g < next.node.g)
+	                else if (currentDistance < ws.g[next])
 	                {
-	                    next.node.g = currentDistance + currentNode.g;
-	                    next.node.parent = currentNode;
-	                    
-	                    next.node.reached=next.move;
-	
-	                    if (open.contains(next.node))
-	                        open.remove(next.node);
-	
-	                    if (closed.contains(next.node))
-	                        closed.remove(next.node);
-	
-	                    open.add(next.node);
+	                    ws.g[next] = currentDistance;
+	                    ws.parent[next] = currentNode;
+	                    ws.reached[next] = adjMoves[e];
+
+	                    if (ws.status[next] == Workspace.OPEN)
+	                        ws.removeAt(ws.heapIndex[next]);
+
+	                    ws.add(next);
 	                }
 	            }
             }
         }
 
-        return extractPath(target);
+        return extractPath(ws, t);
     }
-	
-	public synchronized int[] computePathsAStar(int s, int t, Game game)
-    {	
+
+	public int[] computePathsAStar(int s, int t, Game game)
+    {
 		return computePathsAStar(s, t, MOVE.NEUTRAL, game);
     }
 
-    private synchronized int[] extractPath(N target)
+    private int[] extractPath(Workspace ws, int target)
     {
-    	ArrayList<Integer> route = new ArrayList<Integer>();
-        N current = target;
-        route.add(current.index);
+    	ws.touch(target);
+
+    	int length = 1;
 
-        while (current.parent != null)
+    	for (int current = target; ws.parent[current] != -1; current = ws.parent[current])
+    		length++;
+
+        int[] routeArray=new int[length];
+        int current = target;
+
+        for(int i=length-1;i>=0;i--)
         {
-            route.add(current.parent.index);
-            current = current.parent;
+        	routeArray[i]=current;
+        	current=ws.parent[current];
         }
-        
-        Collections.reverse(route);
-
-        int[] routeArray=new int[route.size()];
-        
-        for(int i=0;i<routeArray.length;i++)
-        	routeArray[i]=route.get(i);
-        
+
         return routeArray;
     }
-    
+
+    //no longer required as each search starts with a fresh state; kept for compatibility
     public void resetGraph()
     {
-    	for(N node : graph)
-    	{
-    		node.g=0;
-    		node.h=0;
-    		node.parent=null;
-    		node.reached=null;
-    	}
     }
 }
 
-class N implements Comparable<N>
+/*
+ * The state of the searches of a thread. The state of a node is only valid if its stamp equals the generation of the
+ * current search; otherwise the node has not been reached yet (see touch(-)). The open set is a binary heap of node
+ * indices ordered by g+h, whose sift operations mirror those of java.util.PriorityQueue (including the order in which
+ * ties are resolved); heapIndex holds the position of each node in the heap.
+ */
+final class Workspace
 {
-    public N parent;
-    public double g, h;
-    public boolean visited = false;
-    public ArrayList<E> adj;
-    public int index;
-    public MOVE reached=null;
-
-    public N(int index)
-    {
-        adj = new ArrayList<E>();
-        this.index=index;
-    }
+	static final int NONE=0,OPEN=1,CLOSED=2;
 
-    public N(double g, double h)
-    {
-        this.g = g;
-        this.h = h;
-    }
+	final int[] g,h,parent,reached,status,heapIndex,stamp,heap;
+	int size,generation;
 
-    public boolean isEqual(N another)
-    {
-        return index == another.index;
-    }
+	Workspace(int numNodes)
+	{
+		g=new int[numNodes];
+		h=new int[numNodes];
+		parent=new int[numNodes];
+		reached=new int[numNodes];
+		status=new int[numNodes];
+		heapIndex=new int[numNodes];
+		stamp=new int[numNodes];
+		heap=new int[numNodes];
+	}
 
-    public String toString()
-    {
-        return ""+index;
-    }
+	void startSearch()
+	{
+		size=0;
+
+		if(++generation==Integer.MAX_VALUE)
+		{
+			Arrays.fill(stamp,0);
+			generation=1;
+		}
+	}
 
-	public int compareTo(N another)
+	//resets the state of the node if it has not been reached during the current search
+	void touch(int node)
 	{
-      if ((g + h) < (another.g + another.h))
-    	  return -1;
-      else  if ((g + h) > (another.g + another.h))
-    	  return 1;
-		
-		return 0;
+		if(stamp[node]!=generation)
+		{
+			stamp[node]=generation;
+			g[node]=h[node]=0;
+			parent[node]=-1;
+			status[node]=NONE;
+		}
 	}
-}
 
-class E
-{
-	public N node;
-	public MOVE move;
-	public double cost;
-	
-	public E(N node,MOVE move,double cost)
+	private int compare(int a,int b)
+	{
+		int fa=g[a]+h[a],fb=g[b]+h[b];
+
+		return fa<fb ? -1 : (fa>fb ? 1 : 0);
+	}
+
+	void add(int node)
+	{
+		status[node]=OPEN;
+
+		if(size==0)
+			set(size++,node);
+		else
+			siftUp(size++,node);
+	}
+
+	int poll()
+	{
+		int result=heap[0];
+		int n=--size;
+
+		if(n>0)
+			siftDown(0,heap[n],n);
+
+		status[result]=NONE;
+		return result;
+	}
+
+	void removeAt(int i)
+	{
+		int node=heap[i];
+		int s=--size;
+
+		if(s!=i)
+		{
+			int moved=heap[s];
+			siftDown(i,moved,s);
+
+			if(heap[i]==moved)
+				siftUp(i,moved);
+		}
+
+		status[node]=NONE;
+	}
+
+	private void siftUp(int k,int node)
 	{
-		this.node=node;
-		this.move=move;
-		this.cost=cost;
+		while(k>0)
+		{
+			int parent=(k-1)>>>1;
+			int e=heap[parent];
+
+			if(compare(node,e)>=0)
+				break;
+
+			set(k,e);
+			k=parent;
+		}
+
+		set(k,node);
 	}
-}
\ No newline at end of file
+
+	private void siftDown(int k,int node,int n)
+	{
+		int half=n>>>1;
+
+		while(k<half)
+		{
+			int child=(k<<1)+1;
+			int c=heap[child];
+			int right=child+1;
+
+			if(right<n && compare(c,heap[right])>0)
+				c=heap[child=right];
+
+			if(compare(node,c)<=0)
+				break;
+
+			set(k,c);
+			k=child;
+		}
+
+		set(k,node);
+	}
+
+	private void set(int i,int node)
+	{
+		heap[i]=node;
+		heapIndex[node]=i;
+	}
+}
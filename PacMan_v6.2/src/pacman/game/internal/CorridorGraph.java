@@ -0,0 +1,240 @@
+package pacman.game.internal;
+
+import java.util.Arrays;
+
+import pacman.game.Constants.MOVE;
+
+/*
+ * The maze as a graph of corridors: a corridor is a path between two end points, which are junctions (or dead ends,
+ * which none of the built-in mazes has), all of whose inner nodes have exactly two neighbours. Every inner node belongs
+ * to exactly one corridor, at an offset (0 being the node next to the start); junctions belong to no corridor but
+ * each of their moves leads into one. Two neighbouring junctions are joined by a corridor without inner nodes and a
+ * corridor may lead back to the junction it started from. The length of a corridor is the number of steps from one
+ * end to the other, i.e., the number of inner nodes plus one.
+ *
+ * Searches may thus expand corridors instead of single nodes: the distance from an inner node to the start of its
+ * corridor is offset+1 and to the end is length-offset-1. The graph is immutable and shared by all games played in
+ * the maze; the number of pills still available in each corridor is kept by the game (see Game.getCorridorPillCount(-)).
+ */
+public final class CorridorGraph
+{
+	private static final MOVE[] MOVES=MOVE.values();
+
+	private final int numCorridors;
+	private final int[] starts,ends,startMoves,endMoves;		//the end points and the moves that lead from them into the corridor
+	private final int[] nodeOffsets,nodes;						//the inner nodes of corridor c are nodes[nodeOffsets[c]] to nodes[nodeOffsets[c+1]-1]
+	private final int[] pillCounts;								//the number of pills on the inner nodes
+	private final int[] corridorIds,offsets;					//the corridor and offset of each node (-1 if the node is no inner node)
+	private final int[] moveCorridors;							//the corridor the move with ordinal m leads into from end point i (i*4+m)
+
+	/*
+	 * Finds the corridors by walking from each end point in every direction that does not lead into a corridor found
+	 * already, until the next end point is reached.
+	 */
+	CorridorGraph(Maze maze)
+	{
+		int numNodes=maze.graph.length;
+		int[] neighbours=maze.neighbours;
+
+		corridorIds=new int[numNodes];
+		offsets=new int[numNodes];
+		moveCorridors=new int[numNodes*4];
+
+		Arrays.fill(corridorIds,-1);
+		Arrays.fill(offsets,-1);
+		Arrays.fill(moveCorridors,-1);
+
+		//there are at most as many corridors as moves leaving the end points, each corridor being found from one end
+		int maxCorridors=0;
+
+		for(int i=0;i<numNodes;i++)
+			if(isEndPoint(maze,i))
+				maxCorridors+=maze.graph[i].numNeighbouringNodes;
+
+		int[] starts=new int[maxCorridors],ends=new int[maxCorridors],startMoves=new int[maxCorridors],endMoves=new int[maxCorridors];
+		int[] nodeOffsets=new int[maxCorridors+1];
+		int[] pillCounts=new int[maxCorridors];
+
+		nodes=new int[numNodes];
+
+		int corridor=0,numInnerNodes=0;
+
+		for(int i=0;i<numNodes;i++)
+		{
+			if(!isEndPoint(maze,i))
+				continue;
+
+			for(int m=0;m<4;m++)
+			{
+				if(neighbours[i*4+m]==-1 || moveCorridors[i*4+m]!=-1)
+					continue;
+
+				int node=neighbours[i*4+m],lastMove=m;
+
+				nodeOffsets[corridor]=numInnerNodes;
+
+				while(!isEndPoint(maze,node))
+				{
+					corridorIds[node]=corridor;
+					offsets[node]=numInnerNodes-nodeOffsets[corridor];
+					nodes[numInnerNodes++]=node;
+
+					if(maze.graph[node].pillIndex>=0)
+						pillCounts[corridor]++;
+
+					//inner nodes have two neighbours: continue in the direction that does not reverse
+					int opposite=MOVES[lastMove].opposite().ordinal();
+
+					for(int next=0;next<4;next++)
+						if(next!=opposite && neighbours[node*4+next]!=-1)
+						{
+							lastMove=next;
+							break;
+						}
+
+					node=neighbours[node*4+lastMove];
+				}
+
+				starts[corridor]=i;
+				startMoves[corridor]=m;
+				ends[corridor]=node;
+				endMoves[corridor]=MOVES[lastMove].opposite().ordinal();
+
+				moveCorridors[i*4+m]=corridor;
+				moveCorridors[node*4+endMoves[corridor]]=corridor;
+				corridor++;
+			}
+		}
+
+		nodeOffsets[corridor]=numInnerNodes;
+
+		this.numCorridors=corridor;
+		this.starts=Arrays.copyOf(starts,corridor);
+		this.ends=Arrays.copyOf(ends,corridor);
+		this.startMoves=Arrays.copyOf(startMoves,corridor);
+		this.endMoves=Arrays.copyOf(endMoves,corridor);
+		this.nodeOffsets=Arrays.copyOf(nodeOffsets,corridor+1);
+		this.pillCounts=Arrays.copyOf(pillCounts,corridor);
+	}
+
+	//junctions and dead ends (isolated nodes, such as the lair, are neither)
+	private static boolean isEndPoint(Maze maze,int nodeIndex)
+	{
+		int numNeighbours=maze.graph[nodeIndex].numNeighbouringNodes;
+
+		return numNeighbours==1 || numNeighbours>2;
+	}
+
+	/*
+	 * Returns the number of corridors.
+	 */
+	public int getNumCorridors()
+	{
+		return numCorridors;
+	}
+
+	/*
+	 * Returns the end point the corridor starts from.
+	 */
+	public int getStart(int corridor)
+	{
+		return starts[corridor];
+	}
+
+	/*
+	 * Returns the end point the corridor leads to.
+	 */
+	public int getEnd(int corridor)
+	{
+		return ends[corridor];
+	}
+
+	/*
+	 * Returns the move that leads from the start of the corridor into it.
+	 */
+	public MOVE getStartMove(int corridor)
+	{
+		return MOVES[startMoves[corridor]];
+	}
+
+	/*
+	 * Returns the move that leads from the end of the corridor into it.
+	 */
+	public MOVE getEndMove(int corridor)
+	{
+		return MOVES[endMoves[corridor]];
+	}
+
+	/*
+	 * Returns the number of steps from the start of the corridor to its end.
+	 */
+	public int getLength(int corridor)
+	{
+		return nodeOffsets[corridor+1]-nodeOffsets[corridor]+1;
+	}
+
+	/*
+	 * Returns the number of inner nodes of the corridor.
+	 */
+	public int getNumNodes(int corridor)
+	{
+		return nodeOffsets[corridor+1]-nodeOffsets[corridor];
+	}
+
+	/*
+	 * Returns the inner node of the corridor at the offset specified.
+	 */
+	public int getNode(int corridor,int offset)
+	{
+		return nodes[nodeOffsets[corridor]+offset];
+	}
+
+	/*
+	 * Returns the inner nodes of the corridor from its start to its end as a new array.
+	 */
+	public int[] getNodes(int corridor)
+	{
+		return Arrays.copyOfRange(nodes,nodeOffsets[corridor],nodeOffsets[corridor+1]);
+	}
+
+	/*
+	 * Returns the number of pills on the inner nodes of the corridor when the level starts.
+	 */
+	public int getPillCount(int corridor)
+	{
+		return pillCounts[corridor];
+	}
+
+	/*
+	 * Returns the corridor the node belongs to (-1 if it is an end point or belongs to no corridor).
+	 */
+	public int getCorridor(int nodeIndex)
+	{
+		return corridorIds[nodeIndex];
+	}
+
+	/*
+	 * Returns the offset of the node within its corridor (-1 if it belongs to no corridor).
+	 */
+	public int getOffset(int nodeIndex)
+	{
+		return offsets[nodeIndex];
+	}
+
+	/*
+	 * Returns the corridor the move leads into from the end point specified (-1 if the node is no end point or the
+	 * move is not possible).
+	 */
+	public int getCorridor(int nodeIndex,MOVE move)
+	{
+		return move==MOVE.NEUTRAL ? -1 : moveCorridors[nodeIndex*4+move.ordinal()];
+	}
+
+	/*
+	 * Returns the end point of the corridor that is not the one specified.
+	 */
+	public int getOtherEnd(int corridor,int nodeIndex)
+	{
+		return starts[corridor]==nodeIndex ? ends[corridor] : starts[corridor];
+	}
+}
@@ -0,0 +1,161 @@
+package pacman.game.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import static pacman.game.Constants.*;
+
+/*
+ * Converts the pre-computed shortest path distances from the text files (one distance per line) to binary files that
+ * can be loaded considerably faster (see Maze). The binary file of a text file has the same name with the extension
+ * ".bin" and consists of the magic number MAGIC (int), the length (long) and the time of the last modification (long)
+ * of the file the distances were derived from, its CRC-32 checksum (int), the number of nodes in the maze (int) and the
+ * distances in the same order as in the text file, each stored as a 16-bit value (short, -1 if unreachable), in
+ * big-endian byte order. The length and time are a cheap stamp: the checksum of the file is only computed if they
+ * differ from the file (see Maze). The binary files are not distributed: Maze writes one after loading a text file
+ * for which there is no binary file, or whose binary file was converted from a text file that has changed since.
+ * Running this class converts all text files ahead of time.
+ */
+public final class DistanceConverter
+{
+	public static final int MAGIC=0x504D4433;	//"PMD3"
+	public static final String EXTENSION=".bin";
+
+	private DistanceConverter(){}
+
+	/*
+	 * Converts the distance files of all mazes.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		for(int i=0;i<distNames.length;i++)
+		{
+			String fileName=pathDistances+System.getProperty("file.separator")+distNames[i];
+
+			convert(fileName,fileName+EXTENSION);
+			System.out.println("Converted "+fileName);
+		}
+	}
+
+	/*
+	 * Converts the text file specified to a binary file. The number of nodes is derived from the number of distances
+	 * (n*(n+1)/2 for a maze of n nodes).
+	 */
+	public static void convert(String textFileName,String binaryFileName) throws IOException
+	{
+		short[] distances=new short[1<<20];
+		int numDistances=0;
+
+		BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(textFileName)));
+
+		try
+		{
+			String input=br.readLine();
+
+			while(input!=null)
+			{
+				int distance=Integer.parseInt(input);
+
+				if(distance<Short.MIN_VALUE || distance>Short.MAX_VALUE)
+					throw new IOException("Distance "+distance+" in "+textFileName+" does not fit into 16 bits");
+
+				if(numDistances==distances.length)
+				{
+					short[] tmp=new short[distances.length*2];
+					System.arraycopy(distances,0,tmp,0,numDistances);
+					distances=tmp;
+				}
+
+				distances[numDistances++]=(short)distance;
+				input=br.readLine();
+			}
+		}
+		finally
+		{
+			br.close();
+		}
+
+		int numNodes=(int)((Math.sqrt(8.0*numDistances+1)-1)/2);
+
+		if((long)numNodes*(numNodes+1)/2!=numDistances)
+			throw new IOException("The number of distances in "+textFileName+" does not correspond to a maze");
+
+		File textFile=new File(textFileName);
+
+		write(distances,numDistances,numNodes,textFile,checksum(textFile),new File(binaryFileName));
+	}
+	
+	/*
+	 * Writes the first numDistances distances of the array to the binary file specified, along with the stamp and the
+	 * checksum of the source file they were derived from. The distances are written to a temporary file that is then
+	 * moved into place, so that a reader never maps a partly written file.
+	 */
+	static void write(short[] distances,int numDistances,int numNodes,File source,int checksum,File binaryFile) throws IOException
+	{
+		File tmp=File.createTempFile(binaryFile.getName(),".tmp",binaryFile.getAbsoluteFile().getParentFile());
+
+		try
+		{
+			DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeLong(source.length());
+				out.writeLong(source.lastModified());
+				out.writeInt(checksum);
+				out.writeInt(numNodes);
+
+				for(int i=0;i<numDistances;i++)
+					out.writeShort(distances[i]);
+			}
+			finally
+			{
+				out.close();
+			}
+
+			Files.move(tmp.toPath(),binaryFile.toPath(),StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally
+		{
+			tmp.delete();
+		}
+	}
+
+	/*
+	 * Returns the CRC-32 checksum of the file specified.
+	 */
+	static int checksum(File file) throws IOException
+	{
+		CRC32 crc=new CRC32();
+		byte[] buffer=new byte[8192];
+
+		FileInputStream in=new FileInputStream(file);
+
+		try
+		{
+			int read=in.read(buffer);
+
+			while(read>=0)
+			{
+				crc.update(buffer,0,read);
+				read=in.read(buffer);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return (int)crc.getValue();
+	}
+}
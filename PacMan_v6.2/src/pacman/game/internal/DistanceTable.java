@@ -0,0 +1,109 @@
+package pacman.game.internal;
+
+/*
+ * Stores the pre-computed shortest path distances between all pairs of nodes of a maze as 16-bit values (distances in
+ * the mazes never exceed a few hundred; -1 denotes an unreachable node). Two layouts are available and the one used
+ * is selected at startup using the system property LAYOUT_PROPERTY:
+ *
+ * "triangular" (default): since the graph is symmetric, only the distances from node i to nodes 0..i are stored, one
+ * row after the other, which requires n*(n+1)/2 values.
+ * "full": the distances from each node to all nodes are stored in a row-major n*n matrix. This requires twice the
+ * memory but a look-up requires no branching and the distances from a node to any set of nodes are found in a single
+ * contiguous row.
+ */
+public abstract class DistanceTable
+{
+	public static final String LAYOUT_PROPERTY="pacman.distances";
+	public static final String TRIANGULAR="triangular";
+	public static final String FULL="full";
+
+	/*
+	 * Creates the table using the layout selected, given the distances in triangular order (as stored in the files).
+	 */
+	public static DistanceTable create(int numNodes,short[] triangularDistances)
+	{
+		String layout=System.getProperty(LAYOUT_PROPERTY,TRIANGULAR);
+
+		if(layout.equals(FULL))
+			return new FullDistanceTable(numNodes,triangularDistances);
+		else if(layout.equals(TRIANGULAR))
+			return new TriangularDistanceTable(triangularDistances);
+		else
+			throw new IllegalArgumentException("Unknown layout of the distances: "+layout);
+	}
+
+	/*
+	 * Returns the shortest path distance between the two nodes specified.
+	 */
+	public abstract int getDistance(int fromNodeIndex,int toNodeIndex);
+
+	/*
+	 * Writes the shortest path distances from the node specified to each of the target nodes into the array supplied.
+	 */
+	public abstract void getDistances(int fromNodeIndex,int[] targetNodeIndices,int[] distances);
+}
+
+/*
+ * The distances in triangular order: the distance between nodes i and j, where j<=i, is stored at i*(i+1)/2+j.
+ */
+final class TriangularDistanceTable extends DistanceTable
+{
+	private final short[] distances;
+
+	TriangularDistanceTable(short[] distances)
+	{
+		this.distances=distances;
+	}
+
+	public int getDistance(int fromNodeIndex,int toNodeIndex)
+	{
+		if(fromNodeIndex==toNodeIndex)
+			return 0;
+		else if(fromNodeIndex<toNodeIndex)
+			return distances[((toNodeIndex*(toNodeIndex+1))/2)+fromNodeIndex];
+		else
+			return distances[((fromNodeIndex*(fromNodeIndex+1))/2)+toNodeIndex];
+	}
+
+	public void getDistances(int fromNodeIndex,int[] targetNodeIndices,int[] distances)
+	{
+		for(int i=0;i<targetNodeIndices.length;i++)
+			distances[i]=getDistance(fromNodeIndex,targetNodeIndices[i]);
+	}
+}
+
+/*
+ * The distances as a row-major n*n matrix: the distance from node i to node j is stored at i*n+j.
+ */
+final class FullDistanceTable extends DistanceTable
+{
+	private final short[] distances;
+	private final int numNodes;
+
+	FullDistanceTable(int numNodes,short[] triangularDistances)
+	{
+		this.numNodes=numNodes;
+		this.distances=new short[numNodes*numNodes];
+
+		for(int i=0;i<numNodes;i++)
+		{
+			int row=(i*(i+1))/2;
+
+			for(int j=0;j<i;j++)
+				distances[i*numNodes+j]=distances[j*numNodes+i]=triangularDistances[row+j];
+		}
+	}
+
+	public int getDistance(int fromNodeIndex,int toNodeIndex)
+	{
+		return distances[fromNodeIndex*numNodes+toNodeIndex];
+	}
+
+	public void getDistances(int fromNodeIndex,int[] targetNodeIndices,int[] distances)
+	{
+		int row=fromNodeIndex*numNodes;
+
+		for(int i=0;i<targetNodeIndices.length;i++)
+			distances[i]=this.distances[row+targetNodeIndices[i]];
+	}
+}
@@ -1,11 +1,17 @@
 package pacman.game.internal;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 //import java.util.EnumMap;
-//import pacman.game.Constants.MOVE;
+import pacman.game.Constants.MOVE;
 
 import static pacman.game.Constants.*;
 
@@ -17,11 +23,27 @@ import static pacman.game.Constants.*;
  */
 public final class Maze
 {
+	public static final int NO_MOVE=7;													//Denotes the absence of a move in nextMoves
+	public static final String GEOMETRY_PROPERTY="pacman.geometry";						//Set to TABLES to pre-compute the geometric distances
+	public static final String TABLES="tables";
+	public static final int MAX_CUSTOM_NODES=Short.MAX_VALUE+1;							//The distances of custom mazes must fit into 16 bits
+	public static final int MAX_NEXT_MOVES_NODES=4096;									//Larger mazes have no nextMoves table (32 MB at this size)
+	
 	public AStar astar;
-	public int[] shortestPathDistances,pillIndices,powerPillIndices,junctionIndices;	//Information for the controllers
+	public DistanceTable shortestPathDistances;											//The shortest path distances between all nodes
+	public int[] pillIndices,powerPillIndices,junctionIndices;							//Information for the controllers
 	public int initialPacManNodeIndex,lairNodeIndex,initialGhostNodeIndex;				//Maze-specific information
 	public Node[] graph;																//The actual maze, stored as a graph (set of nodes)
+	public int[] neighbours,moveMasks;													//The topology of the maze as flat arrays (see createTopology(-))
+	public int[] x,y;																	//The coordinates of the nodes (see createTopology(-))
+	public char[] squaredEuclideanDistances,manhattanDistances;							//Only if GEOMETRY_PROPERTY is TABLES (see createGeometry(-))
+	public MOVE[][] possibleMoves;														//The moves possible given the last move made (see createTopology(-))
+	public int[][] neighbouringNodes;													//The nodes reachable given the last move made (see createTopology(-))
 	public String name;																	//Name of the Maze
+	public long[] pacManNodeKeys,ghostNodeKeys,pillKeys,powerPillKeys;					//Keys used by the Zobrist hash of the game
+	public char[] nextMoves;															//The best moves towards and away from each node (see createNextMoves(-)), null for large mazes
+	public CorridorGraph corridors;														//The corridors between the junctions (see CorridorGraph)
+	public int distancesChecksum;														//The checksum of the file the distances are derived from
 	
 	/*
 	 * Each maze is stored as a (connected) graph: all nodes have neighbours, stored in an array of length 4. The
@@ -32,8 +54,55 @@ public final class Maze
 	 */		
 	public Maze(int index)
 	{
-		loadNodes(nodeNames[index]);
+		loadNodes(new File(pathMazes+System.getProperty("file.separator")+nodeNames[index]+".txt"));
+		createTopology();
+		createGeometry();
+		corridors=new CorridorGraph(this);
 		loadDistances(distNames[index]);
+		createNextMoves();
+		createKeys(index);
+		
+		//create A* graph for shortest paths for the ghosts
+		astar=new AStar();
+		astar.createGraph(graph);
+	}
+	
+	/*
+	 * Loads a custom maze from the node file specified, which has the same format as the files in pathMazes (see
+	 * MazeLoader). The shortest path distances are loaded from the binary distance file specified if it exists and
+	 * was written for the current node file; otherwise they are computed and, if a distance file is specified, written
+	 * to it. The keys of the Zobrist hash are derived from the name of the node file. A custom maze may have at most
+	 * MAX_CUSTOM_NODES nodes, so that the distances between all nodes fit into 16 bits.
+	 */
+	Maze(File nodeFile,File distanceFile)
+	{
+		loadNodes(nodeFile);
+		
+		long numDistances=((long)graph.length*(graph.length+1))/2;
+		
+		if(graph.length>MAX_CUSTOM_NODES)
+			throw new IllegalArgumentException("The maze "+name+" has "+graph.length+" nodes but custom mazes may have at most "
+					+MAX_CUSTOM_NODES+" (the "+numDistances+" distances between all nodes are stored as 16-bit values)");
+		
+		createTopology();
+		createGeometry();
+		corridors=new CorridorGraph(this);
+		
+		short[] distances=new short[(int)numDistances];
+		
+		if(distanceFile==null || !loadBinaryDistances(distanceFile,nodeFile,distances))
+		{
+			MazeLoader.computeDistances(this,distances);
+			distancesChecksum=checksum(nodeFile);
+			
+			if(distanceFile!=null)
+				writeBinaryDistances(distanceFile,nodeFile,distances);
+		}
+		
+		this.shortestPathDistances=DistanceTable.create(graph.length,distances);
+		
+		createNextMoves();
+		createKeys(nodeFile.getName().hashCode());
 		
 		//create A* graph for shortest paths for the ghosts
 		astar=new AStar();
@@ -41,11 +110,11 @@ public final class Maze
 	}
 	
 	//Loads all the nodes from files and initialises all maze-specific information.
-	private void loadNodes(String fileName)
+	private void loadNodes(File file)
 	{
         try
         {         	
-        	BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(pathMazes+System.getProperty("file.separator")+fileName+".txt")));	 
+        	BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(file)));	 
             String input=br.readLine();		
             
             //preamble
@@ -94,32 +163,335 @@ public final class Maze
         }
 	}
 	
+	/*
+	 * Stores the topology of the graph in flat arrays that can be accessed without the look-ups in the nodes' EnumMaps:
+	 * the neighbour of node i in the direction of the move with ordinal m is neighbours[i*4+m] (-1 if there is none) and 
+	 * bit m of moveMasks[i] is set if the move is possible. The moves possible at node i given the last move made (those 
+	 * of the node's allPossibleMoves and allNeighbouringNodes) are possibleMoves[i*5+m] and neighbouringNodes[i*5+m]; 
+	 * the arrays are shared with the nodes and are null if the last move could not have been made. The coordinates of
+	 * node i are x[i] and y[i].
+	 */
+	private void createTopology()
+	{
+		MOVE[] moves=MOVE.values();
+		
+		neighbours=new int[graph.length*4];
+		moveMasks=new int[graph.length];
+		possibleMoves=new MOVE[graph.length*moves.length][];
+		neighbouringNodes=new int[graph.length*moves.length][];
+		x=new int[graph.length];
+		y=new int[graph.length];
+		
+		for(int i=0;i<graph.length;i++)
+		{
+			x[i]=graph[i].x;
+			y[i]=graph[i].y;
+			
+			for(int m=0;m<4;m++)
+			{
+				Integer neighbour=graph[i].neighbourhood.get(moves[m]);
+				
+				if(neighbour!=null)
+				{
+					neighbours[i*4+m]=neighbour;
+					moveMasks[i]|=1<<m;
+				}
+				else
+					neighbours[i*4+m]=-1;
+			}
+			
+			for(int m=0;m<moves.length;m++)
+			{
+				possibleMoves[i*moves.length+m]=graph[i].allPossibleMoves.get(moves[m]);
+				neighbouringNodes[i*moves.length+m]=graph[i].allNeighbouringNodes.get(moves[m]);
+			}
+		}
+	}
+	
+	/*
+	 * If selected by the system property GEOMETRY_PROPERTY, pre-computes the squared Euclidean and the Manhattan distances
+	 * between all nodes as row-major n*n matrices. The tables take about 3.5 MB per maze and table each, so by default
+	 * the distances are computed from the coordinates instead, as they are for mazes whose squared distances do not fit
+	 * into 16 bits.
+	 */
+	private void createGeometry()
+	{
+		if(!TABLES.equals(System.getProperty(GEOMETRY_PROPERTY)))
+			return;
+		
+		int numNodes=graph.length;
+		int minX=Integer.MAX_VALUE,maxX=Integer.MIN_VALUE,minY=Integer.MAX_VALUE,maxY=Integer.MIN_VALUE;
+		
+		for(int i=0;i<numNodes;i++)
+		{
+			minX=Math.min(minX,x[i]);
+			maxX=Math.max(maxX,x[i]);
+			minY=Math.min(minY,y[i]);
+			maxY=Math.max(maxY,y[i]);
+		}
+		
+		if(numNodes==0 || (long)(maxX-minX)*(maxX-minX)+(long)(maxY-minY)*(maxY-minY)>Character.MAX_VALUE)
+			return;
+		
+		squaredEuclideanDistances=new char[numNodes*numNodes];
+		manhattanDistances=new char[numNodes*numNodes];
+		
+		for(int i=0;i<numNodes;i++)
+			for(int j=0;j<numNodes;j++)
+			{
+				int dx=x[i]-x[j],dy=y[i]-y[j];
+				
+				squaredEuclideanDistances[i*numNodes+j]=(char)(dx*dx+dy*dy);
+				manhattanDistances[i*numNodes+j]=(char)(Math.abs(dx)+Math.abs(dy));
+			}
+	}
+	
+	/*
+	 * Pre-computes the moves to make from each node to get closer to or further away from each node along the shortest
+	 * path, as chosen by Game.getNextMoveTowardsTarget(-) and Game.getNextMoveAwayFromTarget(-) using DM.PATH. The moves 
+	 * from node i with respect to node j are stored in nextMoves[i*graph.length+j] as 4 fields of 3 bits each: the best 
+	 * and second-best move towards the node (bits 0-2 and 3-5) and the best and second-best move away from it (bits 6-8 
+	 * and 9-11). Each field is a move ordinal or NO_MOVE. The second-best move is the move chosen if the best move is not
+	 * allowed, i.e., if it is the reversal of the last move made. The table grows with the square of the number of nodes,
+	 * so it is not created for mazes with more than MAX_NEXT_MOVES_NODES nodes (custom mazes only), for which Game finds
+	 * the moves from the distances instead.
+	 */
+	private void createNextMoves()
+	{
+		int numNodes=graph.length;
+		
+		if(numNodes>MAX_NEXT_MOVES_NODES)
+			return;
+		
+		nextMoves=new char[numNodes*numNodes];
+		
+		int[] targets=new int[numNodes];
+		
+		for(int i=0;i<numNodes;i++)
+			targets[i]=i;
+		
+		int[][] distances=new int[4][numNodes];
+		int[] moves=new int[4];
+		
+		for(int i=0;i<numNodes;i++)
+		{
+			int numMoves=0;
+			
+			for(int m=0;m<4;m++)
+				if((moveMasks[i]&(1<<m))!=0)
+				{
+					shortestPathDistances.getDistances(neighbours[i*4+m],targets,distances[numMoves]);
+					moves[numMoves++]=m;
+				}
+			
+			for(int j=0;j<numNodes;j++)
+			{
+				int towards=NO_MOVE,secondTowards=NO_MOVE,away=NO_MOVE,secondAway=NO_MOVE;
+				int minDistance=Integer.MAX_VALUE,secondMinDistance=Integer.MAX_VALUE;
+				int maxDistance=Integer.MIN_VALUE,secondMaxDistance=Integer.MIN_VALUE;
+				
+				//the moves are ranked as by the loops in Game: ties are broken in favour of the lower ordinal
+				for(int k=0;k<numMoves;k++)
+				{
+					int distance=distances[k][j];
+					
+					if(distance<minDistance)
+					{
+						secondMinDistance=minDistance;
+						secondTowards=towards;
+						minDistance=distance;
+						towards=moves[k];
+					}
+					else if(distance<secondMinDistance)
+					{
+						secondMinDistance=distance;
+						secondTowards=moves[k];
+					}
+					
+					if(distance>maxDistance)
+					{
+						secondMaxDistance=maxDistance;
+						secondAway=away;
+						maxDistance=distance;
+						away=moves[k];
+					}
+					else if(distance>secondMaxDistance)
+					{
+						secondMaxDistance=distance;
+						secondAway=moves[k];
+					}
+				}
+				
+				nextMoves[i*numNodes+j]=(char)(towards|(secondTowards<<3)|(away<<6)|(secondAway<<9));
+			}
+		}
+	}
+	
+	/*
+	 * Creates the random keys used to compute the Zobrist hash of a game played in this maze: one key per node for 
+	 * Ms Pac-Man, one key per node for each of the ghosts (stored as ghost*graph.length+node) and one key per pill and 
+	 * power pill. The generator is seeded with the index of the maze so that the keys are identical across runs.
+	 */
+	private void createKeys(int index)
+	{
+		Random rnd=new Random(0x2545F4914F6CDD1DL+index);
+		
+		pacManNodeKeys=new long[graph.length];
+		ghostNodeKeys=new long[graph.length*NUM_GHOSTS];
+		pillKeys=new long[pillIndices.length];
+		powerPillKeys=new long[powerPillIndices.length];
+		
+		for(int i=0;i<pacManNodeKeys.length;i++)
+			pacManNodeKeys[i]=rnd.nextLong();
+		
+		for(int i=0;i<ghostNodeKeys.length;i++)
+			ghostNodeKeys[i]=rnd.nextLong();
+		
+		for(int i=0;i<pillKeys.length;i++)
+			pillKeys[i]=rnd.nextLong();
+		
+		for(int i=0;i<powerPillKeys.length;i++)
+			powerPillKeys[i]=rnd.nextLong();
+	}
+	
 	/*
 	 * Loads the shortest path distances which have been pre-computed. The data contains the shortest distance from
 	 * any node in the maze to any other node. Since the graph is symmetric, the symmetries have been removed to preserve
-	 * memory and all distances are stored in a 1D array; they are looked-up using getDistance(-). 
+	 * memory and all distances are stored in a 1D array; they are kept in a DistanceTable using the layout selected. 
+	 * The distances are read from the binary file of the text file if it is up to date; otherwise they are read from
+	 * the text file and the binary file is written for the next time.
 	 */
 	private void loadDistances(String fileName)
 	{
-		this.shortestPathDistances=new int[((graph.length*(graph.length-1))/2)+graph.length];
+		short[] distances=new short[((graph.length*(graph.length-1))/2)+graph.length];
 		
+		File textFile=new File(pathDistances+System.getProperty("file.separator")+fileName);
+		File binaryFile=new File(textFile.getPath()+DistanceConverter.EXTENSION);
+		
+		if(!loadBinaryDistances(binaryFile,textFile,distances) && loadTextDistances(textFile,distances))
+			writeBinaryDistances(binaryFile,textFile,distances);
+		
+		this.shortestPathDistances=DistanceTable.create(graph.length,distances);
+	}
+	
+	/*
+	 * Returns the checksum of the file the distances are derived from (see DistanceConverter), 0 if it cannot be read.
+	 */
+	private static int checksum(File file)
+	{
+		try
+		{
+			return DistanceConverter.checksum(file);
+		}
+		catch(IOException ioe)
+		{
+			return 0;
+		}
+	}
+	
+	/*
+	 * Loads the shortest path distances from the text file (one distance per line), computing the checksum of the file
+	 * while reading it. Returns false if the file cannot be read.
+	 */
+	private boolean loadTextDistances(File file,short[] distances)
+	{
         try
         {
-        	BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(pathDistances+System.getProperty("file.separator")+fileName)));
+        	CheckedInputStream in=new CheckedInputStream(new FileInputStream(file),new CRC32());
+        	BufferedReader br=new BufferedReader(new InputStreamReader(in));
             String input=br.readLine();
             
             int index=0;
             
             while(input!=null)
             {	
-            	shortestPathDistances[index++]=Integer.parseInt(input);
+            	distances[index++]=(short)Integer.parseInt(input);
                 input=br.readLine();
             }
             br.close();
+            
+            distancesChecksum=(int)in.getChecksum().getValue();
+            return true;
         }
         catch(IOException ioe)
         {
             ioe.printStackTrace();
+            return false;
         }
 	}
+	
+	/*
+	 * Writes the distances to the binary file specified (see DistanceConverter) so that they can be mapped the next time
+	 * the maze is loaded. Failures are reported but not fatal as the distances can always be loaded or computed again.
+	 */
+	private void writeBinaryDistances(File file,File source,short[] distances)
+	{
+		try
+		{
+			DistanceConverter.write(distances,distances.length,graph.length,source,distancesChecksum,file);
+		}
+		catch(IOException ioe)
+		{
+			System.err.println("Could not write the distances of maze "+name+": "+ioe.getMessage());
+		}
+	}
+	
+	/*
+	 * Loads the shortest path distances from the binary file created by DistanceConverter by mapping the file into memory. 
+	 * Returns false if there is no binary file or if it does not correspond to this maze or to the source file the
+	 * distances are derived from, in which case the distances need to be loaded from the text file (or computed). The
+	 * checksum of the source file is only computed if its length or time of modification differ from the stamp.
+	 */
+	private boolean loadBinaryDistances(File file,File source,short[] distances)
+	{
+		if(!file.isFile())
+			return false;
+		
+		try
+		{
+			FileInputStream in=new FileInputStream(file);
+			
+			try
+			{
+				FileChannel channel=in.getChannel();
+				MappedByteBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+				
+				if(buffer.getInt()!=DistanceConverter.MAGIC)
+				{
+					System.err.println("Ignoring "+file+" as it does not correspond to maze "+name);
+					return false;
+				}
+				
+				long length=buffer.getLong();
+				long modified=buffer.getLong();
+				int checksum=buffer.getInt();
+				
+				if((length!=source.length() || modified!=source.lastModified()) && checksum!=checksum(source))
+				{
+					System.err.println("Ignoring "+file+" as the distances of maze "+name+" have changed since it was written");
+					return false;
+				}
+				
+				if(buffer.getInt()!=graph.length || buffer.remaining()!=2*distances.length)
+				{
+					System.err.println("Ignoring "+file+" as it does not correspond to maze "+name);
+					return false;
+				}
+				
+				buffer.asShortBuffer().get(distances);
+				distancesChecksum=checksum;
+				
+				return true;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException ioe)
+		{
+			ioe.printStackTrace();
+			return false;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+package pacman.game.internal;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Loads custom mazes, i.e., mazes other than the four built-in ones, such as generated or larger mazes. A custom maze
+ * only requires a node file in the format of the files in pathMazes (see the readme there): the shortest path distances
+ * between all nodes, which are pre-computed for the built-in mazes, are computed by a breadth-first search from every
+ * node (the edges have unit weight), the searches being distributed across all cores. Optionally, the distances and the
+ * paths cache are written next to the node file (with the extensions DISTANCES_EXTENSION and PathsCache.EXTENSION) and
+ * re-used the next time the maze is loaded, as long as the checksum of the node file they record still matches.
+ *
+ * A custom maze is played by installing it in place of one of the built-in mazes (see install(-)), which needs to be
+ * done before any game is created. Note that GameView still draws the image of the built-in maze.
+ */
+public final class MazeLoader
+{
+	public static final String DISTANCES_EXTENSION=".distances"+DistanceConverter.EXTENSION;
+
+	//the minimum number of sources searched by a single task
+	static final int SOURCES_PER_TASK=32;
+
+	private MazeLoader(){}
+
+	/*
+	 * Loads the custom maze and computes its paths cache, then writes the distance and paths files next to the node
+	 * file specified so that subsequent runs can load them.
+	 */
+	public static void main(String[] args)
+	{
+		if(args.length==0)
+		{
+			System.err.println("Usage: MazeLoader <node file>...");
+			return;
+		}
+
+		for(int i=0;i<args.length;i++)
+		{
+			long start=System.currentTimeMillis();
+
+			Maze maze=load(args[i],true);
+			loadPathsCache(args[i],maze,true);
+
+			System.out.println("Loaded maze "+maze.name+" ("+maze.graph.length+" nodes, "+maze.junctionIndices.length+" junctions) in "
+					+(System.currentTimeMillis()-start)+" ms");
+		}
+	}
+
+	/*
+	 * Loads the custom maze from the node file specified, computing its distances.
+	 */
+	public static Maze load(String nodeFileName)
+	{
+		return load(nodeFileName,false);
+	}
+
+	/*
+	 * Loads the custom maze from the node file specified. If writeFiles is true, the distances are loaded from the
+	 * distance file next to the node file if it is up to date and are otherwise computed and written to it.
+	 */
+	public static Maze load(String nodeFileName,boolean writeFiles)
+	{
+		return new Maze(new File(nodeFileName),writeFiles ? new File(getBaseName(nodeFileName)+DISTANCES_EXTENSION) : null);
+	}
+
+	/*
+	 * Returns the paths cache of the custom maze loaded from the node file specified. If writeFiles is true, the paths
+	 * are loaded from the snapshot next to the node file if it is up to date and are otherwise computed and written to it.
+	 */
+	public static PathsCache loadPathsCache(String nodeFileName,Maze maze,boolean writeFiles)
+	{
+		if(writeFiles)
+			return PathsCache.load(new File(nodeFileName),new File(getBaseName(nodeFileName)+PathsCache.EXTENSION),maze);
+		else
+			return new PathsCache(maze);
+	}
+
+	/*
+	 * Loads the custom maze from the node file specified and installs it in place of the maze with the index specified
+	 * (see MazeRegistry.install(-)).
+	 */
+	public static Maze install(int index,String nodeFileName,boolean writeFiles)
+	{
+		Maze maze=load(nodeFileName,writeFiles);
+		MazeRegistry.install(index,maze,loadPathsCache(nodeFileName,maze,writeFiles));
+
+		return maze;
+	}
+
+	/*
+	 * Computes the shortest path distances between all nodes of the maze in triangular order (see DistanceTable). The
+	 * distance from node i to the nodes 0..i is found by a breadth-first search from node i, so each search fills its
+	 * own row of the array; nodes that cannot be reached are at distance -1.
+	 */
+	static void computeDistances(Maze maze,short[] distances)
+	{
+		MazeRegistry.getPool().invoke(new DistanceTask(maze,distances,0,maze.graph.length));
+	}
+
+	//the name of the node file without the extension .txt
+	private static String getBaseName(String nodeFileName)
+	{
+		return nodeFileName.endsWith(".txt") ? nodeFileName.substring(0,nodeFileName.length()-4) : nodeFileName;
+	}
+}
+
+/*
+ * Searches from a range of source nodes, splitting the range in halves until it holds no more than SOURCES_PER_TASK
+ * sources. The queue and the distances of the searches are re-used for all sources of a task.
+ */
+final class DistanceTask extends RecursiveAction
+{
+	private static final long serialVersionUID=1L;
+
+	private final Maze maze;
+	private final short[] distances;
+	private final int from,to;
+
+	DistanceTask(Maze maze,short[] distances,int from,int to)
+	{
+		this.maze=maze;
+		this.distances=distances;
+		this.from=from;
+		this.to=to;
+	}
+
+	protected void compute()
+	{
+		if(to-from>MazeLoader.SOURCES_PER_TASK)
+		{
+			int middle=(from+to)>>>1;
+			invokeAll(new DistanceTask(maze,distances,from,middle),new DistanceTask(maze,distances,middle,to));
+			return;
+		}
+
+		int numNodes=maze.graph.length;
+		int[] queue=new int[numNodes];
+		int[] depth=new int[numNodes];
+
+		for(int source=from;source<to;source++)
+		{
+			Arrays.fill(depth,-1);
+
+			int head=0,tail=0;
+			queue[tail++]=source;
+			depth[source]=0;
+
+			while(head<tail)
+			{
+				int node=queue[head++];
+
+				for(int m=0;m<4;m++)
+				{
+					int neighbour=maze.neighbours[node*4+m];
+
+					if(neighbour!=-1 && depth[neighbour]==-1)
+					{
+						depth[neighbour]=depth[node]+1;
+						queue[tail++]=neighbour;
+					}
+				}
+			}
+
+			int row=(source*(source+1))/2;
+
+			for(int j=0;j<=source;j++)
+			{
+				if(depth[j]>Short.MAX_VALUE)
+					throw new IllegalStateException("The distance between nodes "+source+" and "+j+" does not fit into 16 bits");
+
+				distances[row+j]=(short)depth[j];
+			}
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package pacman.game.internal;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static pacman.game.Constants.*;
+
+/*
+ * Loads the mazes on demand: a maze (its topology, distances and paths cache) is only loaded the first time it is
+ * requested, usually when a game enters it, and is then shared by all games as the mazes are immutable. Loading is
+ * thread-safe: the load of a maze is a fork-join task published by a compare-and-set, so a single thread runs it and
+ * concurrent requests join it, while requests for a maze that is loaded only require a volatile read. No lock is held
+ * while a maze is loaded: the paths caches are computed on a fork-join pool shared by all mazes (one task per junction)
+ * and a worker of the pool that waits for a maze joins its task, which lets the pool help or compensate instead of
+ * blocking a worker it may need. A maze may also be prefetched on the pool, for instance the next maze while the
+ * current level is played, so that the game does not stall when it enters the maze, and loadAll() loads all mazes
+ * concurrently, so the time to load them scales with the number of cores.
+ */
+public final class MazeRegistry
+{
+	private static final AtomicReferenceArray<Maze> mazes=new AtomicReferenceArray<Maze>(NUM_MAZES);
+	private static final AtomicReferenceArray<PathsCache> caches=new AtomicReferenceArray<PathsCache>(NUM_MAZES);
+	private static final AtomicReferenceArray<LoadTask> loads=new AtomicReferenceArray<LoadTask>(NUM_MAZES);
+
+	private static ForkJoinPool pool;
+
+	private MazeRegistry(){}
+
+	/*
+	 * Returns the maze with the index specified, loading it if necessary.
+	 */
+	public static Maze getMaze(int index)
+	{
+		Maze maze=mazes.get(index);
+
+		if(maze==null)
+		{
+			load(index).join();
+			maze=mazes.get(index);
+		}
+
+		return maze;
+	}
+
+	/*
+	 * Returns the paths cache of the maze with the index specified, loading the maze if necessary.
+	 */
+	public static PathsCache getPathsCache(int index)
+	{
+		PathsCache cache=caches.get(index);
+
+		if(cache==null)
+		{
+			load(index).join();
+			cache=caches.get(index);
+		}
+
+		return cache;
+	}
+
+	/*
+	 * Returns whether the maze with the index specified has been loaded.
+	 */
+	public static boolean isLoaded(int index)
+	{
+		return mazes.get(index)!=null;
+	}
+
+	/*
+	 * Loads the maze with the index specified in the background (on the pool) unless it has been loaded or is being
+	 * loaded already.
+	 */
+	public static void prefetch(int index)
+	{
+		if(mazes.get(index)!=null || loads.get(index)!=null)
+			return;
+
+		LoadTask task=new LoadTask(index);
+
+		if(loads.compareAndSet(index,null,task))
+			getPool().execute(task);
+	}
+
+	/*
+	 * Replaces the maze with the index specified by a custom maze (see MazeLoader), for instance to evaluate controllers
+	 * on generated mazes. Games entering the maze from then on play in the custom maze; this should therefore be done
+	 * before any game is created, as games that are in the maze already would continue with the previous maze but find
+	 * the new paths cache.
+	 */
+	public static void install(int index,Maze maze,PathsCache cache)
+	{
+		caches.set(index,cache);
+		mazes.set(index,maze);
+	}
+
+	/*
+	 * Loads all mazes that have not been loaded yet concurrently and waits for them to be loaded.
+	 */
+	public static void loadAll()
+	{
+		for(int i=0;i<NUM_MAZES;i++)
+			prefetch(i);
+
+		for(int i=0;i<NUM_MAZES;i++)
+			if(mazes.get(i)==null)
+				load(i).join();
+	}
+
+	/*
+	 * Returns the task that loads the maze: if no task has been published yet, the calling thread publishes a new one
+	 * and runs it itself, so the caller only needs to join the task returned. A task that failed is withdrawn so that
+	 * a later request may try again.
+	 */
+	private static ForkJoinTask<?> load(int index)
+	{
+		LoadTask task=loads.get(index);
+
+		if(task==null)
+		{
+			LoadTask created=new LoadTask(index);
+
+			if(loads.compareAndSet(index,null,created))
+				created.invoke();
+
+			task=loads.get(index);
+
+			if(task==null)
+				task=created;
+		}
+
+		return task;
+	}
+
+	/*
+	 * Loads the maze and its paths cache unless a maze has been installed in the meantime. The cache is published
+	 * before the maze so that a game that finds the maze loaded also finds its cache. If loading fails, the task is
+	 * withdrawn (its joiners still see the failure).
+	 */
+	static void loadMaze(int index,LoadTask task)
+	{
+		if(mazes.get(index)!=null)
+			return;
+
+		try
+		{
+			Maze maze=new Maze(index);
+			PathsCache cache=PathsCache.load(index,maze);
+
+			if(caches.compareAndSet(index,null,cache))
+				mazes.compareAndSet(index,null,maze);
+		}
+		catch(RuntimeException re)
+		{
+			loads.compareAndSet(index,task,null);
+			throw re;
+		}
+	}
+
+	/*
+	 * Returns the pool used to load the mazes (its threads are daemons).
+	 */
+	static synchronized ForkJoinPool getPool()
+	{
+		if(pool==null)
+			pool=new ForkJoinPool();
+
+		return pool;
+	}
+}
+
+/*
+ * Loads a maze (see MazeRegistry.loadMaze(-)), either in the thread that requested it first or on the pool.
+ */
+final class LoadTask extends RecursiveAction
+{
+	private static final long serialVersionUID=1L;
+
+	private final int index;
+
+	LoadTask(int index)
+	{
+		this.index=index;
+	}
+
+	protected void compute()
+	{
+		MazeRegistry.loadMaze(index,this);
+	}
+}
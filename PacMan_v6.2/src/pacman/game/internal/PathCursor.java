@@ -0,0 +1,143 @@
+package pacman.game.internal;
+
+import java.nio.IntBuffer;
+import java.util.NoSuchElementException;
+
+/*
+ * A path found by PathsCache that is not copied into an array: the path consists of up to three segments of the paths
+ * stored by the cache (from the source to a junction, from junction to junction and from a junction to the target) and
+ * the cursor iterates over the nodes of these segments. A cursor may be re-used for any number of paths, so controllers
+ * that query many paths each time step can do so without creating any objects. The path is only valid until the cursor
+ * is re-used.
+ */
+public final class PathCursor
+{
+	private static final int MAX_SEGMENTS=3;
+
+	private int[] data;													//the array the segments refer to
+	private final int[] segments=new int[2*MAX_SEGMENTS];				//the segments as pairs of offset and length
+	private int numSegments,length;
+	private int segment,index;											//the position of the next node
+
+	/*
+	 * Clears the cursor for a new path whose segments refer to the array supplied.
+	 */
+	void reset(int[] data)
+	{
+		this.data=data;
+		numSegments=length=segment=index=0;
+	}
+
+	/*
+	 * Appends a segment of the array to the path (empty segments are ignored).
+	 */
+	void add(int offset,int length)
+	{
+		if(length<=0)
+			return;
+
+		segments[2*numSegments]=offset;
+		segments[2*numSegments+1]=length;
+		numSegments++;
+		this.length+=length;
+	}
+
+	/*
+	 * Sets the cursor to the path held by the array supplied (all of it), such as a path shared by SharedPathCache.
+	 * The cursor only reads the array.
+	 */
+	public void view(int[] path)
+	{
+		reset(path);
+		add(0,path.length);
+	}
+
+	/*
+	 * Sets the cursor to the empty path.
+	 */
+	public void clear()
+	{
+		reset(null);
+	}
+
+	/*
+	 * Returns the number of nodes of the path.
+	 */
+	public int length()
+	{
+		return length;
+	}
+
+	/*
+	 * Returns whether there are nodes left to iterate over.
+	 */
+	public boolean hasNext()
+	{
+		return segment<numSegments;
+	}
+
+	/*
+	 * Returns the next node of the path.
+	 */
+	public int next()
+	{
+		if(segment>=numSegments)
+			throw new NoSuchElementException();
+
+		int node=data[segments[2*segment]+index];
+
+		if(++index==segments[2*segment+1])
+		{
+			segment++;
+			index=0;
+		}
+
+		return node;
+	}
+
+	/*
+	 * Moves the cursor back to the first node of the path.
+	 */
+	public void rewind()
+	{
+		segment=index=0;
+	}
+
+	/*
+	 * Copies the path into the array supplied, which must be large enough, and returns its length.
+	 */
+	public int copyTo(int[] path)
+	{
+		int offset=0;
+
+		for(int i=0;i<numSegments;i++)
+		{
+			System.arraycopy(data,segments[2*i],path,offset,segments[2*i+1]);
+			offset+=segments[2*i+1];
+		}
+
+		return length;
+	}
+
+	/*
+	 * Writes the path into the buffer supplied, starting at its position, and returns its length.
+	 */
+	public int copyTo(IntBuffer path)
+	{
+		for(int i=0;i<numSegments;i++)
+			path.put(data,segments[2*i],segments[2*i+1]);
+
+		return length;
+	}
+
+	/*
+	 * Returns the path as a new array.
+	 */
+	public int[] toArray()
+	{
+		int[] path=new int[length];
+		copyTo(path);
+
+		return path;
+	}
+}
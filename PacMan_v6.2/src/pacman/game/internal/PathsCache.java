@@ -1,12 +1,24 @@
 package pacman.game.internal;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.IdentityHashMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import pacman.game.Constants.MOVE;
-import pacman.game.Game;
+
+import static pacman.game.Constants.*;
 
 /*
  * Pre-computes paths for more efficient execution of the game. It is a tradeoff between loading times, execution speed,
@@ -20,70 +32,177 @@ import pacman.game.Game;
  * In the case of Ms Pac-Man, it works as follows:
  *  (a) Looking at all combinations of 2-4 junctions, choosing the shortest path that also takes into account the path to get to either of them.
  *  
- * If one only wants the distance instead of the path, a more efficient method has been implemented that does not need to copy arrays.
+ * If one only wants the distance instead of the path, a more efficient method has been implemented that does not need to copy arrays:
+ * the distances that take the last move made into account are stored in rows, one per node and last move made, that hold the
+ * distances to all nodes. The rows are computed the first time they are needed, after which a distance is a single look-up.
+ * 
+ * Once computed, all paths are stored in a single array (pathData) and referenced by offset and length from flat arrays:
+ *  - the entries of node i, one per junction nearest to the node, are nodeEntries[i] to nodeEntries[i+1]-1. Entry e stores
+ *    the junction (entryJunctions[e]), the first and last move made to reach it (as ordinals) and the path from the node to
+ *    the junction (entryLengths[e] nodes at entryPaths[e]), followed by the reverse path (of the same length).
+ *  - the path from junction q to junction z starting with the move with ordinal m (NEUTRAL: the shortest of these paths)
+ *    is junctionPaths[k] with length junctionLengths[k] (-1 if the move is not possible), where k=(q*numJunctions+z)*5+m.
+ * These arrays are saved as a snapshot in pathCaches (see load(-)) so that the paths need to be computed only once.
  */
 public class PathsCache 
 {	
-	public HashMap<Integer, Integer> junctionIndexConverter;
-	public DNode[] nodes;
-	public Junction[] junctions;
-	public Game game;
+	public static final int MAGIC=0x504D5043;	//"PMPC"
+	public static final int VERSION=2;
+	public static final String EXTENSION=".paths";
+	
+	private static final int HEADER_INTS=8;
+	private static final MOVE[] MOVES=MOVE.values();
+	private static final int NEUTRAL=MOVE.NEUTRAL.ordinal();
+	
+	public Maze maze;
+	
+	private int numJunctions;
+	private int[] junctionIds;													//the index of the junction at each node (-1 if none)
+	private int[] nodeEntries;
+	private int[] entryJunctions,entryFirstMoves,entryLastMoves,entryPaths,entryLengths;
+	private int[] junctionPaths,junctionLengths;
+	private int[] pathData;
+	private final AtomicReferenceArray<short[]> distanceRows;					//the rows of the distances given the last move made (node*5+move)
+	private final SharedPathCache sharedPaths=new SharedPathCache();			//the paths recently returned as arrays (see Game.getShortestPath(-))
 		
- 	public PathsCache(int mazeIndex)
+	/*
+	 * Computes the paths of the maze supplied.
+	 */
+ 	public PathsCache(Maze maze)
 	{
-		junctionIndexConverter = new HashMap<Integer, Integer>();
+		this.maze=maze;
+		this.distanceRows=new AtomicReferenceArray<short[]>(maze.graph.length*MOVES.length);
 		
-		this.game=new Game(0,mazeIndex);
-		Maze m = game.getCurrentMaze();
+		int[] jctIndices = maze.junctionIndices;
 		
-		int[] jctIndices = m.junctionIndices;
+		numJunctions = jctIndices.length;
+		junctionIds = new int[maze.graph.length];
+		Arrays.fill(junctionIds, -1);
 		
 		for (int i = 0; i < jctIndices.length; i++)
-			junctionIndexConverter.put(jctIndices[i], i);
+			junctionIds[jctIndices[i]] = i;
 
-		nodes = assignJunctionsToNodes(game);
-		junctions = junctionDistances(game);
-		
-		for(int i=0;i<junctions.length;i++)
-			junctions[i].computeShortestPaths();
+		flatten(assignJunctionsToNodes(), junctionDistances());
 	}
-
+ 	
+ 	/*
+ 	 * Reads the paths of the maze supplied from a snapshot (see load(-)), starting after the header.
+ 	 */
+ 	private PathsCache(Maze maze, int numJunctions, int numEntries, int numPathData, IntBuffer snapshot)
+ 	{
+ 		this.maze=maze;
+ 		this.numJunctions=numJunctions;
+ 		this.distanceRows=new AtomicReferenceArray<short[]>(maze.graph.length*MOVES.length);
+ 		
+ 		snapshot.get(junctionIds = new int[maze.graph.length]);
+ 		snapshot.get(nodeEntries = new int[maze.graph.length+1]);
+ 		snapshot.get(entryJunctions = new int[numEntries]);
+ 		snapshot.get(entryFirstMoves = new int[numEntries]);
+ 		snapshot.get(entryLastMoves = new int[numEntries]);
+ 		snapshot.get(entryPaths = new int[numEntries]);
+ 		snapshot.get(entryLengths = new int[numEntries]);
+ 		snapshot.get(junctionPaths = new int[numJunctions*numJunctions*5]);
+ 		snapshot.get(junctionLengths = new int[numJunctions*numJunctions*5]);
+ 		snapshot.get(pathData = new int[numPathData]);
+ 	}
+ 	
+ 	/*
+ 	 * Returns the paths cache of the maze with the index specified. The paths are read from the snapshot of the maze if
+ 	 * there is one that was created from the current maze file and distances (and with the current version of the
+ 	 * format); otherwise they are computed and a new snapshot is written.
+ 	 */
+ 	public static PathsCache load(int index, Maze maze)
+ 	{
+ 		String separator=System.getProperty("file.separator");
+ 		
+ 		return load(new File(pathMazes+separator+nodeNames[index]+".txt"), new File(pathCaches+separator+nodeNames[index]+EXTENSION), maze);
+ 	}
+ 	
+ 	/*
+ 	 * Returns the paths cache of the maze loaded from the node file specified, using the snapshot specified.
+ 	 */
+ 	public static PathsCache load(File mazeFile, File snapshot, Maze maze)
+ 	{
+ 		int checksum;
+ 		
+ 		try
+ 		{
+ 			checksum=DistanceConverter.checksum(mazeFile);
+ 		}
+ 		catch(IOException ioe)
+ 		{
+ 			ioe.printStackTrace();
+ 			return new PathsCache(maze);
+ 		}
+ 		
+ 		PathsCache cache=readSnapshot(snapshot, maze, checksum);
+ 		
+ 		if(cache==null)
+ 		{
+ 			cache=new PathsCache(maze);
+ 			cache.writeSnapshot(snapshot, checksum);
+ 		}
+ 		
+ 		return cache;
+ 	}
+ 	
+	//the cache of paths shared by all games played in the maze
+	public SharedPathCache getSharedPaths()
+	{
+		return sharedPaths;
+	}
+	
 	//for Ms Pac-Man
 	public int[] getPathFromA2B(int a, int b)
 	{
+		PathCursor path=new PathCursor();
+		getPathFromA2B(a, b, path);
+		
+		return path.toArray();
+	}
+	
+	//sets the cursor supplied to the path (see PathCursor) and returns its length
+	public int getPathFromA2B(int a, int b, PathCursor path)
+	{
+		path.reset(pathData);
+		
 		//not going anywhere
 		if(a==b)
-			return new int[]{};
+			return 0;
 		
 		//junctions near the source
-		ArrayList<JunctionData> closestFromJunctions=nodes[a].closestJunctions;
+		int fromStart=nodeEntries[a], fromEnd=nodeEntries[a+1];
 		
 		//if target is on the way to junction, then we are done
-		for(int w=0; w<closestFromJunctions.size(); w++)
-			for (int i = 0; i < closestFromJunctions.get(w).path.length; i++)
-				if (closestFromJunctions.get(w).path[i] == b)
-					return Arrays.copyOf(closestFromJunctions.get(w).path, i + 1);
+		for(int w=fromStart; w<fromEnd; w++)
+			for (int i = 0; i < entryLengths[w]; i++)
+				if (pathData[entryPaths[w]+i] == b)
+				{
+					path.add(entryPaths[w], i+1);
+					return path.length();
+				}
 		
 		//junctions near the target
-		ArrayList<JunctionData> closestToJunctions=nodes[b].closestJunctions;
+		int toStart=nodeEntries[b], toEnd=nodeEntries[b+1];
 		
 		int minFrom=-1;
 		int minTo=-1;
 		int minDistance=Integer.MAX_VALUE;
-		int[] shortestPath=null;
+		int shortestPath=-1;
 		
-		for (int i = 0; i < closestFromJunctions.size(); i++) 
+		for (int i = fromStart; i < fromEnd; i++) 
 		{			
-			for (int j = 0; j < closestToJunctions.size(); j++) 
+			int row=junctionIds[entryJunctions[i]]*numJunctions;
+			
+			for (int j = toStart; j < toEnd; j++) 
 			{
 				//to the first junction
-				int distance=closestFromJunctions.get(i).path.length;
+				int distance=entryLengths[i];
 				//junction to junction
-				int[] tmpPath=junctions[junctionIndexConverter.get(closestFromJunctions.get(i).nodeID)]
-						.paths[junctionIndexConverter.get(closestToJunctions.get(j).nodeID)].get(MOVE.NEUTRAL);
-				distance+=tmpPath.length;				
+				int tmpPath=(row+junctionIds[entryJunctions[j]])*5+NEUTRAL;
+				distance+=junctionLengths[tmpPath];				
 				//to the second junction
-				distance+=closestToJunctions.get(j).path.length;
+				distance+=entryLengths[j];
 			
 				if(distance<minDistance)
 				{
@@ -95,81 +214,177 @@ public class PathsCache
 			}
 		}
 		
-		return concat(closestFromJunctions.get(minFrom).path, shortestPath, closestToJunctions.get(minTo).reversePath);
+		path.add(entryPaths[minFrom], entryLengths[minFrom]);
+		path.add(junctionPaths[shortestPath], junctionLengths[shortestPath]);
+		path.add(entryPaths[minTo]+entryLengths[minTo], entryLengths[minTo]);
+		
+		return path.length();
 	}
 	
 	/////// ghosts //////////
 	
-	//To be made more efficient shortly.
+	//the length of the path returned by getPathFromA2B(a,b,lastMoveMade), looked up in the row of node a and the last move made
 	public int getPathDistanceFromA2B(int a, int b, MOVE lastMoveMade)
 	{
-		return getPathFromA2B(a, b, lastMoveMade).length;
+		int row = a*MOVES.length+lastMoveMade.ordinal();
+		short[] distances = distanceRows.get(row);
+		
+		if(distances==null)
+		{
+			distances = new short[maze.graph.length];
+			
+			for (int i = 0; i < distances.length; i++)
+				distances[i] = (short)computePathDistance(a, i, lastMoveMade);
+			
+			//another thread may have computed the row concurrently, in which case the rows are identical
+			distanceRows.set(row, distances);
+		}
+		
+		return distances[b];
+	}
+	
+	//computes the length of the path returned by getPathFromA2B(a,b,lastMoveMade) without creating the path (-1 if there is none)
+	private int computePathDistance(int a, int b, MOVE lastMoveMade)
+	{
+		if(a==b)
+			return 0;
+		
+		int fromJunction = getNearestJunction(a, lastMoveMade);
+		
+		if(fromJunction<0)
+			return -1;
+		
+		int fromPath = entryPaths[fromJunction], fromLength = entryLengths[fromJunction];
+		
+		for (int i = 0; i < fromLength; i++)
+			if (pathData[fromPath+i] == b)
+				return i+1;
+		
+		int junctionFrom = entryJunctions[fromJunction];
+		int junctionFromId = junctionIds[junctionFrom];
+		MOVE moveEnteredJunction = entryLastMoves[fromJunction]==NEUTRAL ? lastMoveMade : MOVES[entryLastMoves[fromJunction]];
+		
+		int minDist = Integer.MAX_VALUE;
+		int distance = -1;
+		
+		for (int q = nodeEntries[b]; q < nodeEntries[b+1]; q++) 
+		{
+			int junctionToId = junctionIds[entryJunctions[q]];
+			
+			if(junctionFromId==junctionToId)
+			{
+				int reversePath=entryPaths[q]+entryLengths[q];
+				
+				if(getMoveToReachNeighbour(junctionFrom, pathData[reversePath])!=moveEnteredJunction.opposite())
+				{
+					int cutoff=-1;
+					
+					for(int w=0;w<entryLengths[q];w++)
+						if(pathData[reversePath+w]==b)
+							cutoff=w;
+					
+					minDist = cutoff+1;
+					distance = minDist;
+				}
+			}
+			else
+			{
+				int paths = (junctionFromId*numJunctions+junctionToId)*5;
+				
+				for (int move = 0; move < NEUTRAL; move++) 
+					if (junctionLengths[paths+move]>=0 && MOVES[move].opposite()!=moveEnteredJunction 
+							&& junctionLengths[paths+move]+entryLengths[q] < minDist) 
+					{
+						minDist = junctionLengths[paths+move]+entryLengths[q];
+						distance = minDist;
+					}
+			}
+		}
+		
+		return distance<0 ? -1 : fromLength+distance;
 	}
 	
 	public int[] getPathFromA2B(int a, int b, MOVE lastMoveMade)
 	{
+		PathCursor path=new PathCursor();
+		getPathFromA2B(a, b, lastMoveMade, path);
+		
+		return path.toArray();
+	}
+	
+	//sets the cursor supplied to the path (see PathCursor) and returns its length
+	public int getPathFromA2B(int a, int b, MOVE lastMoveMade, PathCursor path)
+	{
+		path.reset(pathData);
+		
 		//not going anywhere
 		if(a==b)
-			return new int[]{};
+			return 0;
 
 		//first, go to closest junction (there is only one since we can't reverse)
-		JunctionData fromJunction = nodes[a].getNearestJunction(lastMoveMade);
+		int fromJunction = getNearestJunction(a, lastMoveMade);
+		int fromPath = entryPaths[fromJunction], fromLength = entryLengths[fromJunction];
 		
 		//if target is on the way to junction, then we are done
-		for (int i = 0; i < fromJunction.path.length; i++)
-			if (fromJunction.path[i] == b)
-				return Arrays.copyOf(fromJunction.path, i + 1);
+		for (int i = 0; i < fromLength; i++)
+			if (pathData[fromPath+i] == b)
+			{
+				path.add(fromPath, i+1);
+				return path.length();
+			}
 		
 		//we have reached a junction, fromJunction, which we entered with moveEnteredJunction
-		int junctionFrom = fromJunction.nodeID;
-		int junctionFromId = junctionIndexConverter.get(junctionFrom);
-		MOVE moveEnteredJunction = fromJunction.lastMove.equals(MOVE.NEUTRAL) ? lastMoveMade : fromJunction.lastMove; //if we are at a junction, consider last move instead
+		int junctionFrom = entryJunctions[fromJunction];
+		int junctionFromId = junctionIds[junctionFrom];
+		MOVE moveEnteredJunction = entryLastMoves[fromJunction]==NEUTRAL ? lastMoveMade : MOVES[entryLastMoves[fromJunction]]; //if we are at a junction, consider last move instead
 		 	
 		//now we need to get the 1 or 2 target junctions that enclose the target point
-		ArrayList<JunctionData> junctionsTo=nodes[b].closestJunctions;
+		int toStart=nodeEntries[b], toEnd=nodeEntries[b+1];
 				
 		int minDist = Integer.MAX_VALUE;
-		int[] shortestPath = null;
+		int shortestPath = -1, shortestLength = 0;
 		int closestJunction = -1;		
 		
 		boolean onTheWay=false;
 	
-		for (int q = 0; q < junctionsTo.size(); q++) 
+		for (int q = toStart; q < toEnd; q++) 
 		{
-			int junctionToId = junctionIndexConverter.get(junctionsTo.get(q).nodeID);
+			int junctionToId = junctionIds[entryJunctions[q]];
 			
 			if(junctionFromId==junctionToId)
 			{
-				if(!game.getMoveToMakeToReachDirectNeighbour(junctionFrom, junctionsTo.get(q).reversePath[0]).equals(moveEnteredJunction.opposite()))
+				int reversePath=entryPaths[q]+entryLengths[q];
+				
+				if(getMoveToReachNeighbour(junctionFrom, pathData[reversePath])!=moveEnteredJunction.opposite())
 				{
-					int[] reversepath=junctionsTo.get(q).reversePath;
 					int cutoff=-1;
 					
-					for(int w=0;w<reversepath.length;w++)
-						if(reversepath[w]==b)
+					for(int w=0;w<entryLengths[q];w++)
+						if(pathData[reversePath+w]==b)
 							cutoff=w;
 					
-					shortestPath = Arrays.copyOf(reversepath, cutoff+1);
-					minDist = shortestPath.length;
+					shortestPath = reversePath;
+					shortestLength = cutoff+1;
+					minDist = shortestLength;
 					closestJunction = q;
 					onTheWay=true;
 				}
 			}
 			else
 			{				
-				EnumMap<MOVE, int[]> paths = junctions[junctionFromId].paths[junctionToId];				
-				Set<MOVE> set=paths.keySet();
+				int paths = (junctionFromId*numJunctions+junctionToId)*5;
 					
-				for (MOVE move : set) 
+				for (int move = 0; move < NEUTRAL; move++) 
 				{				
-					if (!move.opposite().equals(moveEnteredJunction) && !move.equals(MOVE.NEUTRAL)) 
+					if (junctionLengths[paths+move]>=0 && MOVES[move].opposite()!=moveEnteredJunction) 
 					{
-						int[] path = paths.get(move);
+						int length = junctionLengths[paths+move];
 						
-						if (path.length+junctionsTo.get(q).path.length < minDist)//need to take distance from toJunction to target into account
+						if (length+entryLengths[q] < minDist)//need to take distance from toJunction to target into account
 						{							
-							minDist = path.length+junctionsTo.get(q).path.length;
-							shortestPath = path;
+							minDist = length+entryLengths[q];
+							shortestPath = junctionPaths[paths+move];
+							shortestLength = length;
 							closestJunction = q;
 							onTheWay=false;
 						}
@@ -178,52 +393,77 @@ public class PathsCache
 			}
 		}
 					
+		path.add(fromPath, fromLength);
+		path.add(shortestPath, shortestLength);
+		
 		if(!onTheWay)
-			return concat(fromJunction.path, shortestPath, junctionsTo.get(closestJunction).reversePath);
-		else
-			return concat(fromJunction.path, shortestPath);
-//			return concat(fromJunction.path, junctionsTo.get(closestJunction).reversePath);
+			path.add(entryPaths[closestJunction]+entryLengths[closestJunction], entryLengths[closestJunction]);
+		
+		return path.length();
 	}
-
-	private Junction[] junctionDistances(Game game)
+	
+	//returns the entry of the junction nearest to the node that can be reached without reversing (-1 if none)
+	private int getNearestJunction(int nodeIndex, MOVE lastMoveMade)
 	{
-		Maze m = game.getCurrentMaze();
-		int[] indices = m.junctionIndices;
+		if(junctionIds[nodeIndex]>=0)
+			return nodeEntries[nodeIndex];
+		
+		int opposite=lastMoveMade.opposite().ordinal();
+		int minDist=Integer.MAX_VALUE;
+		int bestIndex=-1;
+		
+		for (int i = nodeEntries[nodeIndex]; i < nodeEntries[nodeIndex+1]; i++)
+			if (entryFirstMoves[i]!=opposite && entryLengths[i]<minDist)
+			{
+				minDist=entryLengths[i];
+				bestIndex=i;
+			}
 
-		Junction[] junctions = new Junction[indices.length];
+		return bestIndex;
+	}
 
-		for (int q = 0; q < indices.length; q++)// from
-		{
-			MOVE[] possibleMoves = m.graph[indices[q]].allPossibleMoves.get(MOVE.NEUTRAL);// all possible moves
+	//the paths from the junctions are computed in parallel, one task per junction (see JunctionTask)
+	private Junction[] junctionDistances()
+	{
+		Junction[] junctions = new Junction[numJunctions];
+		
+		MazeRegistry.getPool().invoke(new JunctionTask(this, junctions, 0, junctions.length));
 
-			junctions[q] = new Junction(q, indices[q], indices.length);
+		return junctions;
+	}
+	
+	//computes the paths from the junction with the index specified to all junctions
+	void junctionDistances(Junction[] junctions, int q)
+	{
+		int[] indices = maze.junctionIndices;
+		MOVE[] possibleMoves = maze.graph[indices[q]].allPossibleMoves.get(MOVE.NEUTRAL);// all possible moves
+
+		junctions[q] = new Junction(q, indices[q], indices.length);
 
-			for (int z = 0; z < indices.length; z++)// to (we need to include distance to itself)
+		for (int z = 0; z < indices.length; z++)// to (we need to include distance to itself)
+		{
+			for (int i = 0; i < possibleMoves.length; i++) 
 			{
-				for (int i = 0; i < possibleMoves.length; i++) 
-				{
-					int neighbour = game.getNeighbour(indices[q],possibleMoves[i]);
-					int[] p = m.astar.computePathsAStar(neighbour,indices[z], possibleMoves[i], game);
-					m.astar.resetGraph();
+				int neighbour = getNeighbour(indices[q],possibleMoves[i]);
+				int[] p = maze.astar.computePathsAStar(neighbour,indices[z], possibleMoves[i], maze.shortestPathDistances);
 
-					junctions[q].addPath(z, possibleMoves[i], p);
-				}
+				junctions[q].addPath(z, possibleMoves[i], p);
 			}
 		}
-
-		return junctions;
+		
+		junctions[q].computeShortestPaths();
 	}
 
-	private DNode[] assignJunctionsToNodes(Game game)
+	private DNode[] assignJunctionsToNodes()
 	{
-		Maze m = game.getCurrentMaze();
+		Maze m = maze;
 		int numNodes = m.graph.length;
 
 		DNode[] allNodes = new DNode[numNodes];
 
 		for (int i = 0; i < numNodes; i++) 
 		{
-			boolean isJunction=game.isJunction(i);
+			boolean isJunction=isJunction(i);
 			allNodes[i] = new DNode(i,isJunction);
 
 			if(!isJunction)
@@ -235,12 +475,12 @@ public class PathsCache
 					ArrayList<Integer> path = new ArrayList<Integer>();
 	
 					MOVE lastMove = possibleMoves[j];
-					int currentNode = game.getNeighbour(i, lastMove);
+					int currentNode = getNeighbour(i, lastMove);
 					path.add(currentNode);
 	
-					while (!game.isJunction(currentNode)) 
+					while (!isJunction(currentNode)) 
 					{
-						MOVE[] newPossibleMoves = game.getPossibleMoves(currentNode);
+						MOVE[] newPossibleMoves = m.graph[currentNode].allPossibleMoves.get(MOVE.NEUTRAL);
 	
 						for (int q = 0; q < newPossibleMoves.length; q++)
 							if (newPossibleMoves[q].opposite() != lastMove) 
@@ -249,7 +489,7 @@ public class PathsCache
 								break;
 							}
 	
-						currentNode = game.getNeighbour(currentNode, lastMove);
+						currentNode = getNeighbour(currentNode, lastMove);
 						path.add(currentNode);
 					}
 	
@@ -266,22 +506,244 @@ public class PathsCache
 		return allNodes;
 	}
 	
-	private int[] concat(int[]... arrays) 
+	private boolean isJunction(int nodeIndex)
 	{
-		int totalLength = 0;
-
-		for (int i = 0; i < arrays.length; i++)
-			totalLength += arrays[i].length;
-
-		int[] fullArray = new int[totalLength];
-
-		int index = 0;
+		return maze.graph[nodeIndex].numNeighbouringNodes>2;
+	}
+	
+	private int getNeighbour(int nodeIndex, MOVE move)
+	{
+		return maze.neighbours[nodeIndex*4+move.ordinal()];
+	}
+	
+	private MOVE getMoveToReachNeighbour(int nodeIndex, int neighbourIndex)
+	{
+		for(MOVE move : MOVE.values())
+			if(move!=MOVE.NEUTRAL && maze.neighbours[nodeIndex*4+move.ordinal()]==neighbourIndex)
+				return move;
+		
+		return null;
+	}
+	
+	//stores the paths computed in the flat arrays (paths shared by several moves between two junctions are stored once)
+	private void flatten(DNode[] nodes, Junction[] junctions)
+	{
+		int numEntries=0, maxPathData=0;
+		
+		for (int i = 0; i < nodes.length; i++)
+			for (JunctionData junction : nodes[i].closestJunctions)
+			{
+				numEntries++;
+				maxPathData+=2*junction.path.length;
+			}
+		
+		for (int q = 0; q < junctions.length; q++)
+			for (int z = 0; z < junctions.length; z++)
+				for (int[] path : junctions[q].paths[z].values())
+					maxPathData+=path.length;
+		
+		nodeEntries = new int[nodes.length+1];
+		entryJunctions = new int[numEntries];
+		entryFirstMoves = new int[numEntries];
+		entryLastMoves = new int[numEntries];
+		entryPaths = new int[numEntries];
+		entryLengths = new int[numEntries];
+		pathData = new int[maxPathData];
+		
+		int entry=0, length=0;
+		
+		for (int i = 0; i < nodes.length; i++)
+		{
+			nodeEntries[i]=entry;
+			
+			for (JunctionData junction : nodes[i].closestJunctions)
+			{
+				entryJunctions[entry]=junction.nodeID;
+				entryFirstMoves[entry]=junction.firstMove.ordinal();
+				entryLastMoves[entry]=junction.lastMove.ordinal();
+				entryPaths[entry]=length;
+				entryLengths[entry]=junction.path.length;
+				
+				System.arraycopy(junction.path, 0, pathData, length, junction.path.length);
+				length+=junction.path.length;
+				System.arraycopy(junction.reversePath, 0, pathData, length, junction.reversePath.length);
+				length+=junction.reversePath.length;
+				entry++;
+			}
+		}
+		
+		nodeEntries[nodes.length]=entry;
+		
+		junctionPaths = new int[numJunctions*numJunctions*5];
+		junctionLengths = new int[numJunctions*numJunctions*5];
+		
+		IdentityHashMap<int[], Integer> offsets = new IdentityHashMap<int[], Integer>();
+		
+		for (int q = 0; q < junctions.length; q++)
+			for (int z = 0; z < junctions.length; z++)
+				for (int move = 0; move < MOVES.length; move++)
+				{
+					int index = (q*numJunctions+z)*5+move;
+					int[] path = junctions[q].paths[z].get(MOVES[move]);
+					
+					if (path == null)
+					{
+						junctionPaths[index]=-1;
+						junctionLengths[index]=-1;
+						continue;
+					}
+					
+					Integer offset = offsets.get(path);
+					
+					if (offset == null)
+					{
+						offset=length;
+						offsets.put(path, offset);
+						System.arraycopy(path, 0, pathData, length, path.length);
+						length+=path.length;
+					}
+					
+					junctionPaths[index]=offset;
+					junctionLengths[index]=path.length;
+				}
+		
+		pathData = Arrays.copyOf(pathData, length);
+	}
+	
+	/*
+	 * Reads the snapshot specified. Returns null if there is no snapshot or if it does not correspond to the maze (the
+	 * maze file or the distances, which the searches use as their heuristic and to break ties, have changed, or the
+	 * snapshot was written by a different version), in which case the paths need to be computed.
+	 */
+	private static PathsCache readSnapshot(File file, Maze maze, int checksum)
+	{
+		if(!file.isFile())
+			return null;
+		
+		try
+		{
+			FileInputStream in=new FileInputStream(file);
+			
+			try
+			{
+				FileChannel channel=in.getChannel();
+				IntBuffer snapshot=channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size()).asIntBuffer();
+				
+				if(snapshot.remaining()<HEADER_INTS || snapshot.get()!=MAGIC || snapshot.get()!=VERSION || snapshot.get()!=checksum 
+						|| snapshot.get()!=maze.distancesChecksum || snapshot.get()!=maze.graph.length)
+				{
+					System.err.println("Ignoring "+file+" as it does not correspond to maze "+maze.name);
+					return null;
+				}
+				
+				int numJunctions=snapshot.get();
+				int numEntries=snapshot.get();
+				int numPathData=snapshot.get();
+				
+				if(numJunctions!=maze.junctionIndices.length 
+						|| snapshot.remaining()!=2*maze.graph.length+1+5*numEntries+10*numJunctions*numJunctions+numPathData)
+				{
+					System.err.println("Ignoring "+file+" as it is corrupt");
+					return null;
+				}
+				
+				return new PathsCache(maze, numJunctions, numEntries, numPathData, snapshot);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException ioe)
+		{
+			ioe.printStackTrace();
+			return null;
+		}
+	}
+	
+	/*
+	 * Writes the snapshot of the paths: the header (MAGIC, VERSION, the checksum of the maze file, the checksum of the
+	 * distances (see Maze.distancesChecksum), the number of nodes, junctions, entries and the length of pathData)
+	 * followed by the flat arrays, all as big-endian ints. The snapshot is written to a unique temporary file in the
+	 * same directory first and then moved into place atomically, so that other threads and processes never read an
+	 * incomplete snapshot.
+	 */
+	private void writeSnapshot(File file, int checksum)
+	{
+		File tmp=null;
+		
+		try
+		{
+			file.getParentFile().mkdirs();
+			tmp=File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			
+			DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(checksum);
+				out.writeInt(maze.distancesChecksum);
+				out.writeInt(maze.graph.length);
+				out.writeInt(numJunctions);
+				out.writeInt(entryJunctions.length);
+				out.writeInt(pathData.length);
+				
+				int[][] arrays={junctionIds,nodeEntries,entryJunctions,entryFirstMoves,entryLastMoves,entryPaths,entryLengths,
+						junctionPaths,junctionLengths,pathData};
+				
+				for(int[] array : arrays)
+					for(int value : array)
+						out.writeInt(value);
+			}
+			finally
+			{
+				out.close();
+			}
+			
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(IOException ioe)
+		{
+			System.err.println("Could not write the snapshot of maze "+maze.name+": "+ioe.getMessage());
+			
+			if(tmp!=null)
+				tmp.delete();
+		}
+	}
+}
 
-		for (int i = 0; i < arrays.length; i++)
-			for (int j = 0; j < arrays[i].length; j++)
-				fullArray[index++] = arrays[i][j];
 
-		return fullArray;
+/*
+ * Computes the paths from a range of junctions, splitting the range in halves until it holds a single junction. The
+ * tasks share the A* instance of the maze, which keeps the state of the searches of each thread separately.
+ */
+final class JunctionTask extends RecursiveAction
+{
+	private static final long serialVersionUID=1L;
+	
+	private final PathsCache cache;
+	private final Junction[] junctions;
+	private final int from,to;
+	
+	JunctionTask(PathsCache cache,Junction[] junctions,int from,int to)
+	{
+		this.cache=cache;
+		this.junctions=junctions;
+		this.from=from;
+		this.to=to;
+	}
+	
+	protected void compute()
+	{
+		if(to-from==1)
+			cache.junctionDistances(junctions,from);
+		else if(to-from>1)
+		{
+			int middle=(from+to)>>>1;
+			invokeAll(new JunctionTask(cache,junctions,from,middle),new JunctionTask(cache,junctions,middle,to));
+		}
 	}
 }
 
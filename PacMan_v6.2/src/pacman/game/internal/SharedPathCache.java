@@ -0,0 +1,194 @@
+package pacman.game.internal;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A bounded cache of the paths found by PathsCache, keyed by the source, the target and the last move made (NO_LAST_MOVE
+ * for the paths of Ms Pac-Man, which may reverse). There is one cache per maze, shared by all games and threads that play
+ * in the maze, and it does not lock: the cache is divided into sets of WAYS slots, a key is stored in the set its hash
+ * selects and a full set evicts one of its entries using the CLOCK algorithm (a hand per set sweeps over the slots,
+ * clearing the bit of those used since it last passed and replacing the first slot whose bit is clear). An entry is
+ * immutable and published by a single atomic write, so readers find either a complete entry or none; writers racing for
+ * a set may overwrite each other's entries or store a path twice, which only costs a later miss.
+ *
+ * The cached arrays are shared and must never be modified: Game returns copies of them or read-only views (IntBuffer or
+ * PathCursor, see Game.getSharedShortestPath(-)). The capacity is set by the system property CAPACITY_PROPERTY (0 disables
+ * the cache) and the hits, misses and evictions are counted for all games together.
+ */
+public final class SharedPathCache
+{
+	public static final String CAPACITY_PROPERTY="pacman.pathcache";
+	public static final int DEFAULT_CAPACITY=8192;
+	public static final int NO_LAST_MOVE=7;										//the last move of paths that may start with a reversal
+
+	private static final int WAYS=4;
+
+	private final AtomicReferenceArray<CachedPath> slots;
+	private final AtomicIntegerArray used;										//the reference bits of the slots
+	private final AtomicIntegerArray hands;										//the next slot the hand of each set points to
+	private final int setMask;
+	private final LongAdder hits=new LongAdder(),misses=new LongAdder(),evictions=new LongAdder();	//striped, so that threads do not contend
+
+	/*
+	 * Creates a cache with the capacity set by CAPACITY_PROPERTY (DEFAULT_CAPACITY if it is not set).
+	 */
+	SharedPathCache()
+	{
+		this(Integer.getInteger(CAPACITY_PROPERTY,DEFAULT_CAPACITY));
+	}
+
+	/*
+	 * Creates a cache for at least the number of paths specified (rounded up to a power of two, at least WAYS) or a
+	 * disabled cache if the capacity is not positive.
+	 */
+	SharedPathCache(int capacity)
+	{
+		int numSets=0;
+
+		if(capacity>0)
+		{
+			numSets=1;
+
+			while(numSets*WAYS<capacity)
+				numSets<<=1;
+		}
+
+		slots=new AtomicReferenceArray<CachedPath>(numSets*WAYS);
+		used=new AtomicIntegerArray(numSets*WAYS);
+		hands=new AtomicIntegerArray(numSets);
+		setMask=numSets-1;
+	}
+
+	/*
+	 * Returns the cached path from a to b given the last move made (NO_LAST_MOVE if there is none) or null if it is not
+	 * cached. The array returned must not be modified.
+	 */
+	public int[] get(int a,int b,int lastMove)
+	{
+		if(setMask<0)
+		{
+			misses.increment();
+			return null;
+		}
+
+		long key=key(a,b,lastMove);
+		int first=set(key)*WAYS;
+
+		for(int slot=first;slot<first+WAYS;slot++)
+		{
+			CachedPath entry=slots.get(slot);
+
+			if(entry!=null && entry.key==key)
+			{
+				if(used.get(slot)==0)
+					used.set(slot,1);
+
+				hits.increment();
+				return entry.path;
+			}
+		}
+
+		misses.increment();
+		return null;
+	}
+
+	/*
+	 * Stores the path from a to b given the last move made (NO_LAST_MOVE if there is none), evicting a path of its set
+	 * if the set is full. The cache takes ownership of the array, which must not be modified afterwards.
+	 */
+	public void put(int a,int b,int lastMove,int[] path)
+	{
+		if(setMask<0)
+			return;
+
+		long key=key(a,b,lastMove);
+		int set=set(key);
+		int first=set*WAYS;
+
+		//the hand sweeps at most one full round clearing the bits, after which the slot it points to is replaced
+		for(int i=0;i<=WAYS;i++)
+		{
+			int slot=first+(hands.getAndIncrement(set)&(WAYS-1));
+
+			if(i<WAYS && used.get(slot)!=0)
+			{
+				used.set(slot,0);
+				continue;
+			}
+
+			if(slots.getAndSet(slot,new CachedPath(key,path))!=null)
+				evictions.increment();
+
+			return;
+		}
+	}
+
+	/*
+	 * Returns the number of paths the cache can hold.
+	 */
+	public int getCapacity()
+	{
+		return slots.length();
+	}
+
+	/*
+	 * Returns the number of look-ups that found their path.
+	 */
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	/*
+	 * Returns the number of look-ups that did not find their path.
+	 */
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/*
+	 * Returns the number of paths that were replaced by other paths.
+	 */
+	public long getEvictions()
+	{
+		return evictions.sum();
+	}
+
+	/*
+	 * Resets the counters to 0 (the cached paths are kept). Updates made concurrently may or may not be counted.
+	 */
+	public void resetCounters()
+	{
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	private static long key(int a,int b,int lastMove)
+	{
+		return ((long)a<<32)|((long)b<<3)|lastMove;
+	}
+
+	private int set(long key)
+	{
+		return (int)SplitMix64.nextLong(key)&setMask;
+	}
+
+	/*
+	 * A path stored in the cache with its key.
+	 */
+	private static final class CachedPath
+	{
+		final long key;
+		final int[] path;
+
+		CachedPath(long key,int[] path)
+		{
+			this.key=key;
+			this.path=path;
+		}
+	}
+}
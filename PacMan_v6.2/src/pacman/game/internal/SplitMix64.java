@@ -0,0 +1,60 @@
+package pacman.game.internal;
+
+/*
+ * The SplitMix64 pseudo-random number generator. The state of a generator is a single long that is kept by its owner
+ * (e.g., a field of Game), so copying a generator is as cheap as copying a long and a copy continues the exact same
+ * sequence. Each call to one of the next*(-) methods advances the state supplied by one step and returns the new state
+ * along with the output: use nextState(-) to advance the state and the output methods to obtain the random values.
+ * split(-) derives the state of a statistically independent generator, for instance to seed the games of parallel runs.
+ */
+public final class SplitMix64
+{
+	private static final long GOLDEN_GAMMA=0x9E3779B97F4A7C15L;
+
+	private SplitMix64(){}
+
+	/*
+	 * Advances the state by one step.
+	 */
+	public static long nextState(long state)
+	{
+		return state+GOLDEN_GAMMA;
+	}
+
+	/*
+	 * Returns the 64 random bits corresponding to the state (which should have been advanced using nextState(-)).
+	 */
+	public static long nextLong(long state)
+	{
+		long z=state;
+		z=(z^(z>>>30))*0xBF58476D1CE4E5B9L;
+		z=(z^(z>>>27))*0x94D049BB133111EBL;
+		return z^(z>>>31);
+	}
+
+	/*
+	 * Returns a random integer in [0,bound) corresponding to the state.
+	 */
+	public static int nextInt(long state,int bound)
+	{
+		return (int)(((nextLong(state)>>>32)*bound)>>>32);
+	}
+
+	/*
+	 * Returns a random double in [0,1) corresponding to the state.
+	 */
+	public static double nextDouble(long state)
+	{
+		return (nextLong(state)>>>11)*0x1.0p-53;
+	}
+
+	/*
+	 * Returns the state of a new generator whose sequence is independent of the sequence of the generator with the
+	 * state supplied. Splitting the same state twice returns the same generator, so the state should be advanced
+	 * between splits.
+	 */
+	public static long split(long state)
+	{
+		return nextLong(nextState(state))^GOLDEN_GAMMA;
+	}
+}
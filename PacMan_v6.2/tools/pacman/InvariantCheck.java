@@ -0,0 +1,363 @@
+package pacman;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Random;
+import pacman.game.Game;
+import pacman.game.internal.CorridorGraph;
+import pacman.game.internal.MazeRegistry;
+import pacman.game.internal.PathCursor;
+import pacman.game.internal.PathsCache;
+
+import static pacman.game.Constants.*;
+
+/**
+ * Checks the invariants the incremental and cached parts of the game rely on
+ * against straightforward recomputations, playing seeded random games in all
+ * mazes:
+ * - copies: a copy has the state of the game and advancing it leaves the game
+ *   unchanged
+ * - makeMove()/unmakeMove(): a move made equals the move advanced on a copy
+ *   and unmaking it restores the state before it, also for long sequences
+ * - the incremental hash equals the hash of the same state set from scratch
+ * - the binary game state reads back as the state written, discarding the
+ *   moves recorded before
+ * - all mazes load concurrently while a game loads a maze, within
+ *   LOAD_TIMEOUT (a pool worker blocked on another load would hang; this is
+ *   most likely when the paths are computed rather than read from the
+ *   snapshots in data/caches, and with -XX:ActiveProcessorCount=1)
+ * - the pill counts of the corridors equal the active pills in them
+ * - the k nearest active pills equal those of a brute-force search
+ * - the shared paths, their copies and read-only views equal the paths of
+ *   the paths cache, and modifying a copy leaves them unchanged
+ *
+ * It is not part of the game: compile it together with the sources (for
+ * instance javac -sourcepath src -d bin tools/pacman/InvariantCheck.java) and
+ * run it after changing the game state or the caches. It prints the number of
+ * checks made and exits with status 1 if any of them failed.
+ */
+public class InvariantCheck {
+	private static final long LOAD_TIMEOUT = 60000;
+	private static final int TICKS_PER_MAZE = 3000;
+	private static final int SEARCH_DEPTH = 8;
+	private static final int MAX_REPORTED = 20;
+
+	private final Random rnd = new Random(0);
+	private final Game reference = new Game(0);
+	private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+	private final PathCursor cursor = new PathCursor();
+	private long checks;
+	private int failures;
+
+	/**
+	 * Runs all checks.
+	 *
+	 * @param args the command line arguments (not used)
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		if (!checkMazeLoading()) {
+			System.out.println("FAILED: the mazes were not loaded within " + LOAD_TIMEOUT + " ms");
+			System.exit(1);
+		}
+
+		InvariantCheck check = new InvariantCheck();
+
+		for (int i = 0; i < NUM_MAZES; i++)
+			check.playGame(i);
+
+		check.checkDeepUnmake();
+
+		System.out.println(check.checks + " checks, " + check.failures + " failed");
+		System.exit(check.failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Loads all mazes in the background while a game is created (which loads
+	 * the first maze) and returns whether this completed in time.
+	 */
+	private static boolean checkMazeLoading() throws InterruptedException {
+		Thread loader = new Thread(new Runnable() {
+			public void run() {
+				new Game(0);
+				MazeRegistry.loadAll();
+			}
+		});
+
+		loader.setDaemon(true);
+		loader.start();
+		loader.join(LOAD_TIMEOUT);
+
+		return !loader.isAlive();
+	}
+
+	/**
+	 * Plays a random game that starts in the maze specified, checking the game
+	 * after every tick and searching the move tree from time to time.
+	 */
+	private void playGame(int mazeIndex) {
+		Game game = new Game(rnd.nextLong(), mazeIndex);
+
+		for (int tick = 0; tick < TICKS_PER_MAZE && !game.gameOver(); tick++) {
+			checkCopy(game);
+			checkHash(game);
+			checkCodec(game);
+			checkCorridors(game);
+
+			if (tick % 100 == 0) {
+				search(game, SEARCH_DEPTH);
+				checkNearestPills(game);
+				checkSharedPaths(game);
+			}
+
+			game.advanceGame(getPacManMove(game), getGhostMoves(game));
+		}
+	}
+
+	/**
+	 * Checks that a copy has the state of the game and that advancing the copy
+	 * leaves the game unchanged.
+	 */
+	private void checkCopy(Game game) {
+		String state = game.getGameState();
+		Game copy = game.copy();
+
+		check("copy", copy.getGameState().equals(state), "the copy differs from the game");
+
+		copy.advanceGame(getPacManMove(copy), getGhostMoves(copy));
+		check("copy", game.getGameState().equals(state), "advancing the copy changed the game");
+	}
+
+	/**
+	 * Makes random moves down to the depth specified, comparing every move
+	 * with the same move advanced on a copy and every unmade move with the
+	 * state before it.
+	 */
+	private void search(Game game, int depth) {
+		if (depth == 0 || game.gameOver())
+			return;
+
+		String before = game.getGameState();
+		long hash = game.getHash();
+
+		for (int i = 0; i < 2; i++) {
+			MOVE pacManMove = getPacManMove(game);
+			EnumMap<GHOST, MOVE> ghostMoves = getGhostMoves(game);
+
+			Game copy = game.copy();
+			copy.advanceGameWithPowerPillReverseOnly(pacManMove, new EnumMap<GHOST, MOVE>(ghostMoves));
+			game.makeMove(pacManMove, ghostMoves);
+
+			check("makeMove", game.getGameState().equals(copy.getGameState()), "the state differs from the state advanced on a copy");
+			check("hash", game.getHash() == copy.getHash(), "the hash after a move made differs from the hash of the copy");
+			checkCorridors(game);
+
+			search(game, depth - 1);
+
+			game.unmakeMove();
+
+			check("unmakeMove", game.getGameState().equals(before), "the state differs from the state before the move");
+			check("hash", game.getHash() == hash, "the hash after a move unmade differs from the hash before the move");
+		}
+	}
+
+	/**
+	 * Makes moves until the game is over (or for a long time), then unmakes all
+	 * of them, which crosses levels and lost lives on the way back.
+	 */
+	private void checkDeepUnmake() {
+		Game game = new Game(rnd.nextLong());
+		String start = game.getGameState();
+		int moves = 0;
+
+		while (!game.gameOver() && moves < 30000) {
+			game.makeMove(getPacManMove(game), getGhostMoves(game));
+			moves++;
+		}
+
+		for (int i = 0; i < moves; i++)
+			game.unmakeMove();
+
+		check("unmakeMove", game.getGameState().equals(start), "unmaking " + moves + " moves does not restore the start");
+		checkCorridors(game);
+	}
+
+	/**
+	 * Checks the incremental hash against the hash of the same state set from
+	 * its string representation.
+	 */
+	private void checkHash(Game game) {
+		reference.setGameState(game.getGameState());
+		check("hash", reference.getHash() == game.getHash(), "the incremental hash differs from the recomputed hash");
+	}
+
+	/**
+	 * Round-trips the game state through the binary codec and checks that
+	 * reading it discards the moves recorded before.
+	 */
+	private void checkCodec(Game game) {
+		buffer.clear();
+		game.writeGameState(buffer);
+		check("codec", buffer.position() == game.getGameStateSize(), "the size written differs from getGameStateSize()");
+
+		reference.makeMove(MOVE.NEUTRAL, null);
+		buffer.flip();
+		reference.readGameState(buffer);
+
+		check("codec", buffer.remaining() == 0 && reference.getGameState().equals(game.getGameState())
+				&& reference.getHash() == game.getHash(), "the state read differs from the state written");
+
+		try {
+			reference.unmakeMove();
+			check("codec", false, "readGameState() kept the moves made before");
+		} catch (IllegalStateException ise) {
+			check("codec", true, null);
+		}
+	}
+
+	/**
+	 * Checks the pill counts of the corridors against the active pills.
+	 */
+	private void checkCorridors(Game game) {
+		CorridorGraph corridors = game.getCorridorGraph();
+		int[] counts = new int[corridors.getNumCorridors()];
+
+		for (int pill : game.getActivePillsIndices()) {
+			int corridor = corridors.getCorridor(pill);
+
+			if (corridor >= 0)
+				counts[corridor]++;
+		}
+
+		for (int i = 0; i < counts.length; i++)
+			check("corridors", counts[i] == game.getCorridorPillCount(i), "corridor " + i + " has " + counts[i]
+					+ " active pills but counts " + game.getCorridorPillCount(i));
+	}
+
+	/**
+	 * Checks the k nearest active pills from random nodes against all active
+	 * pills sorted by distance (ties by pill index, power pills last).
+	 */
+	private void checkNearestPills(Game game) {
+		int[] pills = game.getPillIndices();
+		int[] powerPills = game.getPowerPillIndices();
+
+		for (int i = 0; i < 10; i++) {
+			int node = rnd.nextInt(game.getNumberOfNodes());
+			boolean includePowerPills = rnd.nextBoolean();
+			int k = 1 + rnd.nextInt(rnd.nextBoolean() ? 4 : pills.length);
+
+			ArrayList<int[]> expected = new ArrayList<int[]>();
+
+			for (int j = 0; j < pills.length; j++)
+				if (game.isPillStillAvailable(j))
+					addPill(game, node, pills[j], j, expected);
+
+			if (includePowerPills)
+				for (int j = 0; j < powerPills.length; j++)
+					if (game.isPowerPillStillAvailable(j))
+						addPill(game, node, powerPills[j], pills.length + j, expected);
+
+			Collections.sort(expected, new Comparator<int[]>() {
+				public int compare(int[] a, int[] b) {
+					return a[0] != b[0] ? a[0] - b[0] : a[1] - b[1];
+				}
+			});
+
+			int[] nodes = new int[k];
+			int[] distances = new int[k];
+			int found = game.getNearestActivePills(node, includePowerPills, nodes, distances);
+			boolean same = found == Math.min(k, expected.size());
+
+			for (int j = 0; same && j < found; j++)
+				same = nodes[j] == expected.get(j)[2] && distances[j] == expected.get(j)[0];
+
+			check("nearest pills", same, "the " + k + " nearest pills from " + node + " differ from a brute-force search");
+			check("nearest pills", game.getNearestActivePill(node, includePowerPills) == (expected.isEmpty() ? -1
+					: expected.get(0)[2]), "the nearest pill from " + node + " differs from a brute-force search");
+		}
+	}
+
+	//adds the distance, the rank and the node of a pill that can be reached from the node specified
+	private static void addPill(Game game, int node, int pill, int rank, ArrayList<int[]> pills) {
+		int distance = game.getShortestPathDistance(node, pill);
+
+		if (distance >= 0)
+			pills.add(new int[] { distance, rank, pill });
+	}
+
+	/**
+	 * Checks the copies and views of the shared paths between random nodes
+	 * against the paths cache, and that they do not expose the cached arrays.
+	 */
+	private void checkSharedPaths(Game game) {
+		PathsCache paths = MazeRegistry.getPathsCache(game.getMazeIndex());
+		MOVE[] moves = MOVE.values();
+
+		for (int i = 0; i < 20; i++) {
+			int from = rnd.nextInt(game.getNumberOfNodes());
+			int to = rnd.nextInt(game.getNumberOfNodes());
+			MOVE lastMove = moves[rnd.nextInt(moves.length)];
+
+			if (game.getNeighbouringNodes(from).length == 0 || game.getNeighbouringNodes(to).length == 0)
+				continue;	//lair
+
+			int[] expected = paths.getPathFromA2B(from, to, lastMove);
+			int[] copy = game.getShortestPath(from, to, lastMove);
+
+			check("shared paths", Arrays.equals(copy, expected), "the path from " + from + " to " + to + " differs from the paths cache");
+
+			Arrays.fill(copy, -1);
+			check("shared paths", Arrays.equals(game.getShortestPath(from, to, lastMove), expected),
+					"modifying a path changed the shared path from " + from + " to " + to);
+
+			IntBuffer view = game.getSharedShortestPath(from, to, lastMove);
+			int[] viewed = new int[view.remaining()];
+			view.get(viewed);
+			check("shared paths", Arrays.equals(viewed, expected), "the view of the path from " + from + " to " + to + " differs");
+
+			try {
+				game.getSharedShortestPath(from, to, lastMove).put(0, -1);
+				check("shared paths", false, "the view of the path from " + from + " to " + to + " is writable");
+			} catch (ReadOnlyBufferException robe) {
+				check("shared paths", true, null);
+			}
+
+			check("shared paths", game.getSharedShortestPath(from, to, lastMove, cursor) == expected.length
+					&& Arrays.equals(cursor.toArray(), expected), "the cursor over the path from " + from + " to " + to + " differs");
+		}
+	}
+
+	//records a check, printing the first failures
+	private void check(String name, boolean passed, String message) {
+		checks++;
+
+		if (!passed && ++failures <= MAX_REPORTED)
+			System.out.println("FAILED " + name + ": " + message);
+	}
+
+	//a random move of Ms Pac-Man (who may reverse)
+	private MOVE getPacManMove(Game game) {
+		MOVE[] moves = game.getPossibleMoves(game.getPacmanCurrentNodeIndex());
+
+		return moves[rnd.nextInt(moves.length)];
+	}
+
+	//random moves of the ghosts that require an action
+	private EnumMap<GHOST, MOVE> getGhostMoves(Game game) {
+		EnumMap<GHOST, MOVE> ghostMoves = new EnumMap<GHOST, MOVE>(GHOST.class);
+
+		for (GHOST ghost : GHOST.values())
+			if (game.doesGhostRequireAction(ghost)) {
+				MOVE[] moves = game.getPossibleMoves(game.getGhostCurrentNodeIndex(ghost), game.getGhostLastMoveMade(ghost));
+				ghostMoves.put(ghost, moves[rnd.nextInt(moves.length)]);
+			}
+
+		return ghostMoves;
+	}
+}